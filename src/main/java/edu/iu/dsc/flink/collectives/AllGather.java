@@ -0,0 +1,170 @@
+package edu.iu.dsc.flink.collectives;
+
+import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
+import org.apache.flink.api.common.functions.FlatMapFunction;
+import org.apache.flink.api.common.functions.Partitioner;
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.common.functions.RichMapPartitionFunction;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.operators.Operator;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.util.Collector;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Gathers the row blocks of a matrix to every task. The blocks are identified by their index and are
+ * placed in the gathered matrix in the order of the index.
+ *
+ * With DIRECT every block is sent to every task in a single exchange. With RECURSIVE_DOUBLING the
+ * blocks are exchanged in ceil(log2 p) rounds and every task doubles the blocks it holds in each
+ * round (the dissemination algorithm, which works for any p). The rounds depend on the parallelism,
+ * which has to be the actual parallelism of the operators, the parallelism of the environment is
+ * -1 unless it is set.
+ */
+public final class AllGather {
+  public enum Algorithm {
+    DIRECT,
+    RECURSIVE_DOUBLING
+  }
+
+  private AllGather() {
+  }
+
+  /**
+   * Every task of the returned data set holds the gathered matrix, with the task number as the index
+   *
+   * @param parallelism number of tasks, the rounds of RECURSIVE_DOUBLING depend on it
+   * @param globalRows rows of the gathered matrix, not checked if 0
+   */
+  public static DataSet<Matrix> allGather(DataSet<Matrix> blocks, int parallelism, int globalRows,
+                                          Algorithm algorithm) {
+    DataSet<Tuple2<Integer, Matrix>> held;
+    if (algorithm == Algorithm.RECURSIVE_DOUBLING && parallelism > 0) {
+      held = tag(blocks, parallelism);
+      for (int distance = 1; distance < parallelism; distance *= 2) {
+        held = exchange(held.flatMap(new DisseminationRound(distance, parallelism)).returns(MatrixTypes.INDEXED_MATRIX),
+            parallelism);
+      }
+    } else {
+      held = exchange(blocks.flatMap(new DirectRound()).returns(MatrixTypes.INDEXED_MATRIX), parallelism);
+    }
+    return assemble(held, parallelism, globalRows);
+  }
+
+  private static DataSet<Tuple2<Integer, Matrix>> tag(DataSet<Matrix> blocks, int parallelism) {
+    return withParallelism(blocks.map(new Tag()).returns(MatrixTypes.INDEXED_MATRIX), parallelism);
+  }
+
+  private static DataSet<Tuple2<Integer, Matrix>> exchange(DataSet<Tuple2<Integer, Matrix>> routed, int parallelism) {
+    return withParallelism(routed.partitionCustom(new TaskPartitioner(), 0), parallelism);
+  }
+
+  private static DataSet<Matrix> assemble(DataSet<Tuple2<Integer, Matrix>> held, int parallelism, int globalRows) {
+    return withParallelism(held.mapPartition(new Assemble(globalRows)).returns(MatrixTypes.MATRIX), parallelism);
+  }
+
+  private static <T> DataSet<T> withParallelism(Operator<T, ?> operator, int parallelism) {
+    return parallelism > 0 ? operator.setParallelism(parallelism) : operator;
+  }
+
+  /**
+   * Routes a record to the task given by its key
+   */
+  private static class TaskPartitioner implements Partitioner<Integer> {
+    @Override
+    public int partition(Integer task, int numPartitions) {
+      return task % numPartitions;
+    }
+  }
+
+  /**
+   * Key the blocks with the task holding them
+   */
+  private static class Tag extends RichMapFunction<Matrix, Tuple2<Integer, Matrix>> {
+    @Override
+    public Tuple2<Integer, Matrix> map(Matrix block) throws Exception {
+      return new Tuple2<Integer, Matrix>(getRuntimeContext().getIndexOfThisSubtask(), block);
+    }
+  }
+
+  /**
+   * Send every block to every task
+   */
+  private static class DirectRound extends RichFlatMapFunction<Matrix, Tuple2<Integer, Matrix>> {
+    @Override
+    public void flatMap(Matrix block, Collector<Tuple2<Integer, Matrix>> collector) throws Exception {
+      int tasks = getRuntimeContext().getNumberOfParallelSubtasks();
+      for (int i = 0; i < tasks; i++) {
+        collector.collect(new Tuple2<Integer, Matrix>(i, block));
+      }
+    }
+  }
+
+  /**
+   * Keep the block and send it to the task distance below, so that after the round every task holds
+   * the blocks of twice as many tasks
+   */
+  private static class DisseminationRound implements FlatMapFunction<Tuple2<Integer, Matrix>, Tuple2<Integer, Matrix>> {
+    private int distance;
+    private int parallelism;
+
+    public DisseminationRound(int distance, int parallelism) {
+      this.distance = distance;
+      this.parallelism = parallelism;
+    }
+
+    @Override
+    public void flatMap(Tuple2<Integer, Matrix> held, Collector<Tuple2<Integer, Matrix>> collector) throws Exception {
+      collector.collect(held);
+      collector.collect(new Tuple2<Integer, Matrix>((held.f0 - distance + parallelism) % parallelism, held.f1));
+    }
+  }
+
+  /**
+   * Copy the blocks held by the task to a single matrix ordered by the block index
+   */
+  private static class Assemble extends RichMapPartitionFunction<Tuple2<Integer, Matrix>, Matrix> {
+    private int globalRows;
+
+    public Assemble(int globalRows) {
+      this.globalRows = globalRows;
+    }
+
+    @Override
+    public void mapPartition(Iterable<Tuple2<Integer, Matrix>> iterable, Collector<Matrix> collector) throws Exception {
+      // the dissemination rounds can deliver a block more than once
+      Map<Integer, Matrix> blocks = new TreeMap<Integer, Matrix>();
+      int rows = 0;
+      int cols = 0;
+      for (Tuple2<Integer, Matrix> t : iterable) {
+        if (blocks.put(t.f1.getIndex(), t.f1) == null) {
+          rows += t.f1.getRows();
+          cols = t.f1.getCols();
+        }
+      }
+      if (blocks.isEmpty()) {
+        return;
+      }
+
+      if (globalRows > 0 && rows != globalRows) {
+        throw new RuntimeException("Failed to gather row != globalCols, rows=" + rows + " globalCols=" + globalRows);
+      }
+
+      int cellCount = 0;
+      double[] vals = new double[rows * cols];
+      for (int j = 0; j < blocks.size(); j++) {
+        Matrix t = blocks.get(j);
+        if (t == null) {
+          throw new RuntimeException("Missing matrix part: " + j);
+        }
+        System.arraycopy(t.getData(), 0, vals, cellCount, t.getData().length);
+        cellCount += t.getData().length;
+      }
+      collector.collect(new Matrix(vals, rows, cols, getRuntimeContext().getIndexOfThisSubtask(), false));
+    }
+  }
+}
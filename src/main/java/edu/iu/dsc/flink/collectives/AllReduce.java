@@ -13,8 +13,8 @@ import org.apache.flink.util.Collector;
 import java.util.List;
 
 public class AllReduce extends Collective {
-  public AllReduce(int size, int iterations, ExecutionEnvironment env, String outFile) {
-    super(size, iterations, env, outFile);
+  public AllReduce(int size, int iterations, ExecutionEnvironment env, String outFile, CollectiveData.Type type) {
+    super(size, iterations, env, outFile, type);
   }
 
   @Override
@@ -34,21 +34,12 @@ public class AllReduce extends Collective {
 
       @Override
       public Tuple2<Integer, CollectiveData> map(Integer integer) throws Exception {
-        for (CollectiveData d : data) {
-          d.setTime(System.currentTimeMillis());
-          return new Tuple2<Integer, CollectiveData>(0, d);
-        }
-        return null;
-      }
-    }).withBroadcastSet(loop, "data").groupBy(0).reduceGroup(new GroupReduceFunction<Tuple2<Integer,CollectiveData>, CollectiveData>() {
-      @Override
-      public void reduce(Iterable<Tuple2<Integer, CollectiveData>> iterable, Collector<CollectiveData> collector) throws Exception {
-        for (Tuple2<Integer, CollectiveData> t : iterable) {
-          CollectiveData d = t.f1;
-          collector.collect(d);
-        }
+        // the broadcast data is shared by the tasks, only the timings are copied
+        CollectiveData d = data.get(0).copy();
+        d.send(id);
+        return new Tuple2<Integer, CollectiveData>(0, d);
       }
-    });
+    }).withBroadcastSet(loop, "data").groupBy(0).reduceGroup(new Merge());
 
     DataSet<CollectiveData> secondSet = mapSet.map(new RichMapFunction<Integer, Tuple2<Integer, CollectiveData>>() {
       List<CollectiveData> data;
@@ -62,24 +53,29 @@ public class AllReduce extends Collective {
 
       @Override
       public Tuple2<Integer, CollectiveData> map(Integer integer) throws Exception {
-        for (CollectiveData d : data) {
-          d.addTime(System.currentTimeMillis() - d.getTime());
-          return new Tuple2<Integer, CollectiveData>(0, d);
-        }
-        return null;
+        CollectiveData d = data.get(0).copy();
+        // the reduced data has come back to the task that sent it
+        d.receive(id);
+        return new Tuple2<Integer, CollectiveData>(0, d);
       }
-    }).withBroadcastSet(loop, "data").groupBy(0).reduceGroup(new GroupReduceFunction<Tuple2<Integer,CollectiveData>, CollectiveData>() {
-      @Override
-      public void reduce(Iterable<Tuple2<Integer, CollectiveData>> iterable, Collector<CollectiveData> collector) throws Exception {
-        for (Tuple2<Integer, CollectiveData> t : iterable) {
-          CollectiveData d = t.f1;
-          collector.collect(d);
-        }
-      }
-    });
-
+    }).withBroadcastSet(dataSet, "data").groupBy(0).reduceGroup(new Merge());
 
     DataSet<CollectiveData> finalData = loop.closeWith(secondSet);
     finalData.writeAsText(outFile, FileSystem.WriteMode.OVERWRITE);
   }
+
+  private static class Merge implements GroupReduceFunction<Tuple2<Integer,CollectiveData>, CollectiveData> {
+    @Override
+    public void reduce(Iterable<Tuple2<Integer, CollectiveData>> iterable, Collector<CollectiveData> collector) throws Exception {
+      CollectiveData reduced = null;
+      for (Tuple2<Integer, CollectiveData> t : iterable) {
+        if (reduced == null) {
+          reduced = t.f1;
+        } else {
+          reduced.merge(t.f1);
+        }
+      }
+      collector.collect(reduced);
+    }
+  }
 }
@@ -0,0 +1,324 @@
+package edu.iu.dsc.flink.collectives;
+
+import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
+import org.apache.flink.api.common.JobExecutionResult;
+import org.apache.flink.api.common.accumulators.ListAccumulator;
+import org.apache.flink.api.common.functions.MapFunction;
+import org.apache.flink.api.common.functions.Partitioner;
+import org.apache.flink.api.common.functions.ReduceFunction;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.io.DiscardingOutputFormat;
+import org.apache.flink.api.java.operators.IterativeDataSet;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.utils.ParameterTool;
+import org.apache.flink.configuration.Configuration;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Measures the latency and bandwidth of the collectives for a sweep of payload sizes, parallelism
+ * and strategies. Every measurement is a bulk iteration running the collective once per superstep.
+ * The latency of a superstep is the time between the starts of two consecutive supersteps, taken
+ * with System.nanoTime on the task the iteration token returns to, so no clocks of different hosts
+ * are compared.
+ *
+ * The payload is a double[] of the given size in bytes. For the all gathers every task contributes
+ * size / p of it. Bandwidth is the payload size divided by the mean latency.
+ *
+ * Usage: Benchmark --minBytes 8 --maxBytes 268435456 --factor 4 --p 1,2,4
+ *   --col BROADCAST_SET,GROUP_REDUCE,ALL_GATHER_TREE --itr 20 --warmup 2 --out collectives
+ * Writes the summary to [out].csv and the latency histograms to [out]_hist.csv
+ */
+public class Benchmark {
+  private static final String LATENCIES = "latencies";
+
+  public enum Strategy {
+    // one task broadcasts the payload to all the tasks
+    BROADCAST_SET,
+    // every task sends a payload, summed with a groupBy reduce
+    GROUP_REDUCE,
+    // the groupBy reduce followed by a broadcast of the sum
+    GROUP_REDUCE_BROADCAST,
+    ALL_GATHER_DIRECT,
+    ALL_GATHER_TREE
+  }
+
+  public static void main(String[] args) throws Exception {
+    final ParameterTool params = ParameterTool.fromArgs(args);
+    ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
+    env.getConfig().setGlobalJobParameters(params);
+    long minBytes = params.getLong("minBytes", 8);
+    long maxBytes = params.getLong("maxBytes", 256L * 1024 * 1024);
+    int factor = params.getInt("factor", 4);
+    int itr = params.getInt("itr", 20);
+    int warmup = params.getInt("warmup", 2);
+    String out = params.get("out", "collectives");
+
+    List<Integer> parallelisms = new ArrayList<Integer>();
+    for (String p : params.get("p", Integer.toString(env.getParallelism())).split(",")) {
+      parallelisms.add(Integer.parseInt(p.trim()));
+    }
+    // a local environment keeps the task slots of its first job, so the largest parallelism runs first
+    Collections.sort(parallelisms, Collections.<Integer>reverseOrder());
+    List<Strategy> strategies = new ArrayList<Strategy>();
+    if (params.has("col")) {
+      for (String s : params.get("col").split(",")) {
+        strategies.add(Strategy.valueOf(s.trim()));
+      }
+    } else {
+      Collections.addAll(strategies, Strategy.values());
+    }
+    List<Long> sizes = new ArrayList<Long>();
+    for (long b = minBytes; b <= maxBytes; b *= factor) {
+      sizes.add(b);
+    }
+    if (sizes.isEmpty() || sizes.get(sizes.size() - 1) != maxBytes) {
+      sizes.add(maxBytes);
+    }
+
+    PrintWriter summary = new PrintWriter(out + ".csv");
+    PrintWriter histogram = new PrintWriter(out + "_hist.csv");
+    summary.println("collective,parallelism,bytes,iterations,min_us,mean_us,p50_us,p90_us,p99_us,max_us,gb_per_s");
+    histogram.println("collective,parallelism,bytes,bucket_upper_us,count");
+    for (int p : parallelisms) {
+      for (Strategy strategy : strategies) {
+        for (long bytes : sizes) {
+          System.out.println(String.format("Running %s with parallelism %d and %d bytes", strategy, p, bytes));
+          List<Long> latencies = run(env, strategy, p, bytes, itr + warmup + 1);
+          List<Long> samples = new ArrayList<Long>(latencies.subList(Math.min(warmup, latencies.size()), latencies.size()));
+          report(summary, histogram, strategy, p, bytes, samples);
+        }
+      }
+    }
+    summary.close();
+    histogram.close();
+  }
+
+  private static List<Long> run(ExecutionEnvironment env, Strategy strategy, int p, long bytes,
+                                int supersteps) throws Exception {
+    env.setParallelism(p);
+    int count = (int) Math.max(1, bytes / Double.BYTES);
+    List<Integer> taskList = new ArrayList<Integer>();
+    for (int i = 0; i < p; i++) {
+      taskList.add(i);
+    }
+    // one element for each task
+    DataSet<Integer> tasks = env.fromCollection(taskList).rebalance();
+
+    IterativeDataSet<Long> loop = env.fromElements(0L).iterate(supersteps);
+    DataSet<Long> head = loop.map(new Stamp());
+    DataSet<Long> acks;
+    switch (strategy) {
+      case BROADCAST_SET:
+        DataSet<Matrix> payload = head.map(new Payload(count)).returns(MatrixTypes.MATRIX);
+        acks = tasks.map(new Receive()).withBroadcastSet(payload, "payload");
+        break;
+      case GROUP_REDUCE:
+        acks = reduce(tasks, head, count).map(new Rows());
+        break;
+      case GROUP_REDUCE_BROADCAST:
+        acks = tasks.map(new Receive()).withBroadcastSet(reduce(tasks, head, count), "payload");
+        break;
+      case ALL_GATHER_DIRECT:
+      case ALL_GATHER_TREE:
+        DataSet<Matrix> blocks = tasks.map(new Block(Math.max(1, count / p))).returns(MatrixTypes.MATRIX)
+            .withBroadcastSet(head, "token");
+        AllGather.Algorithm algorithm = strategy == Strategy.ALL_GATHER_TREE
+            ? AllGather.Algorithm.RECURSIVE_DOUBLING : AllGather.Algorithm.DIRECT;
+        DataSet<Matrix> gathered = AllGather.allGather(blocks, p, 0, algorithm);
+        acks = gathered.map(new Rows());
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown collective: " + strategy);
+    }
+    // the token is sent back to the first task, so the supersteps are timed by the same function object
+    DataSet<Long> token = acks.reduce(new Sum()).partitionCustom(new FirstTask(), new KeySelector<Long, Long>() {
+      @Override
+      public Long getKey(Long token) throws Exception {
+        return token;
+      }
+    });
+    loop.closeWith(token).output(new DiscardingOutputFormat<Long>());
+
+    JobExecutionResult result = env.execute(strategy + " p=" + p + " bytes=" + bytes);
+    List<Long> latencies = result.getAccumulatorResult(LATENCIES);
+    return latencies != null ? latencies : new ArrayList<Long>();
+  }
+
+  private static DataSet<Matrix> reduce(DataSet<Integer> tasks, DataSet<Long> token, int count) {
+    return tasks.map(new Part(count)).returns(MatrixTypes.INDEXED_MATRIX).withBroadcastSet(token, "token")
+        .groupBy(0).reduce(new SumParts()).map(new MapFunction<Tuple2<Integer, Matrix>, Matrix>() {
+          @Override
+          public Matrix map(Tuple2<Integer, Matrix> t) throws Exception {
+            return t.f1;
+          }
+        }).returns(MatrixTypes.MATRIX);
+  }
+
+  private static void report(PrintWriter summary, PrintWriter histogram, Strategy strategy, int p, long bytes,
+                             List<Long> samples) {
+    if (samples.isEmpty()) {
+      return;
+    }
+    Collections.sort(samples);
+    double total = 0;
+    for (long s : samples) {
+      total += s;
+    }
+    double mean = total / samples.size();
+    summary.println(String.format("%s,%d,%d,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.6f", strategy, p, bytes,
+        samples.size(), samples.get(0) / 1e3, mean / 1e3, percentile(samples, 50) / 1e3,
+        percentile(samples, 90) / 1e3, percentile(samples, 99) / 1e3,
+        samples.get(samples.size() - 1) / 1e3, bytes / mean));
+    summary.flush();
+
+    // buckets of powers of two microseconds
+    long upper = 1;
+    int count = 0;
+    for (long s : samples) {
+      while (s / 1000 >= upper) {
+        if (count > 0) {
+          histogram.println(String.format("%s,%d,%d,%d,%d", strategy, p, bytes, upper, count));
+        }
+        upper *= 2;
+        count = 0;
+      }
+      count++;
+    }
+    histogram.println(String.format("%s,%d,%d,%d,%d", strategy, p, bytes, upper, count));
+    histogram.flush();
+  }
+
+  private static long percentile(List<Long> sorted, int percent) {
+    int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+    return sorted.get(Math.max(0, rank - 1));
+  }
+
+  /**
+   * Records the time since the start of the previous superstep. The function object lives through
+   * all the supersteps of the iteration.
+   */
+  private static class Stamp extends RichMapFunction<Long, Long> {
+    private ListAccumulator<Long> latencies;
+    private long last;
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+      super.open(parameters);
+      if (latencies == null) {
+        latencies = new ListAccumulator<Long>();
+        getRuntimeContext().addAccumulator(LATENCIES, latencies);
+      }
+    }
+
+    @Override
+    public Long map(Long token) throws Exception {
+      long now = System.nanoTime();
+      if (last > 0) {
+        latencies.add(now - last);
+      }
+      last = now;
+      return token;
+    }
+  }
+
+  private static class Payload extends RichMapFunction<Long, Matrix> {
+    private int count;
+    private Matrix payload;
+
+    public Payload(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public Matrix map(Long token) throws Exception {
+      if (payload == null) {
+        payload = new Matrix(new double[count], count, 1, false);
+      }
+      return payload;
+    }
+  }
+
+  private static class Part extends RichMapFunction<Integer, Tuple2<Integer, Matrix>> {
+    private int count;
+    private Matrix payload;
+
+    public Part(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public Tuple2<Integer, Matrix> map(Integer task) throws Exception {
+      if (payload == null) {
+        payload = new Matrix(new double[count], count, 1, false);
+      }
+      return new Tuple2<Integer, Matrix>(0, payload);
+    }
+  }
+
+  private static class Block extends RichMapFunction<Integer, Matrix> {
+    private int count;
+    private Matrix block;
+
+    public Block(int count) {
+      this.count = count;
+    }
+
+    @Override
+    public Matrix map(Integer task) throws Exception {
+      if (block == null) {
+        block = new Matrix(new double[count], count, 1, task, false);
+      }
+      return block;
+    }
+  }
+
+  private static class Receive extends RichMapFunction<Integer, Long> {
+    @Override
+    public Long map(Integer task) throws Exception {
+      List<Matrix> payload = getRuntimeContext().getBroadcastVariable("payload");
+      return (long) payload.get(0).getRows();
+    }
+  }
+
+  private static class Rows implements MapFunction<Matrix, Long> {
+    @Override
+    public Long map(Matrix matrix) throws Exception {
+      return (long) matrix.getRows();
+    }
+  }
+
+  private static class SumParts implements ReduceFunction<Tuple2<Integer, Matrix>> {
+    @Override
+    public Tuple2<Integer, Matrix> reduce(Tuple2<Integer, Matrix> a, Tuple2<Integer, Matrix> b) throws Exception {
+      double[] sum = new double[a.f1.getData().length];
+      double[] x = a.f1.getData();
+      double[] y = b.f1.getData();
+      for (int i = 0; i < sum.length; i++) {
+        sum[i] = x[i] + y[i];
+      }
+      return new Tuple2<Integer, Matrix>(0, new Matrix(sum, a.f1.getRows(), 1, false));
+    }
+  }
+
+  private static class FirstTask implements Partitioner<Long> {
+    @Override
+    public int partition(Long key, int numPartitions) {
+      return 0;
+    }
+  }
+
+  private static class Sum implements ReduceFunction<Long> {
+    @Override
+    public Long reduce(Long a, Long b) throws Exception {
+      return a + b;
+    }
+  }
+}
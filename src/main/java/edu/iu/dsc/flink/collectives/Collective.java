@@ -11,27 +11,19 @@ public abstract class Collective {
   int iterations;
   ExecutionEnvironment env;
   String outFile;
+  CollectiveData.Type type;
 
-  public Collective(int size, int iterations, ExecutionEnvironment env, String outFile) {
+  public Collective(int size, int iterations, ExecutionEnvironment env, String outFile, CollectiveData.Type type) {
     this.size = size;
     this.iterations = iterations;
     this.env = env;
     this.outFile = outFile;
+    this.type = type;
   }
 
   public DataSet<CollectiveData> loadDataSet(int size, ExecutionEnvironment env) {
     int p =  env.getParallelism();
-//    List<CollectiveData> list = new ArrayList<>();
-//    for (int j = 0; j < p; j++) {
-      List<Integer> data = new ArrayList<>(size);
-      for (int i = 0; i < size; i++) {
-        data.add(i);
-      }
-
-      CollectiveData collectiveData = new CollectiveData(data, System.currentTimeMillis());
-//      list.add(collectiveData);
-//    }
-    return env.fromElements(collectiveData);
+    return env.fromElements(new CollectiveData(type, size, p));
   }
 
   public DataSet<Integer> loadMapDataSet(int size, ExecutionEnvironment env) {
@@ -1,44 +1,121 @@
 package edu.iu.dsc.flink.collectives;
 
 import java.io.Serializable;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * Payload of the collectives. The payload is a primitive array of the configured element type.
+ * Every task stamps the data with System.nanoTime when it sends it, and the round trip is taken
+ * when the data comes back to the same task, so the times of different hosts are never compared.
+ */
 public class CollectiveData implements Serializable {
-  public List<Integer> list;
+  public enum Type {
+    BYTE, SHORT, INT, LONG, FLOAT, DOUBLE
+  }
+
+  public Type type;
+
+  // primitive array of the type
+  public Object data;
+
+  // the nano time each task sent the data, only valid on that task
+  public long[] sendTime;
+
+  public long[] roundTripTime;
 
-  public long time;
+  public int[] roundTrips;
 
-  public long cumulativeTime;
+  // the task that last sent or received this copy
+  public int task = -1;
 
-  public String hostName;
+  public CollectiveData() {
+  }
+
+  public CollectiveData(Type type, int size, int tasks) {
+    this.type = type;
+    this.data = createArray(type, size);
+    this.sendTime = new long[tasks];
+    this.roundTripTime = new long[tasks];
+    this.roundTrips = new int[tasks];
+  }
+
+  private static Object createArray(Type type, int size) {
+    switch (type) {
+      case BYTE:
+        return new byte[size];
+      case SHORT:
+        return new short[size];
+      case INT:
+        return new int[size];
+      case LONG:
+        return new long[size];
+      case FLOAT:
+        return new float[size];
+      default:
+        return new double[size];
+    }
+  }
 
-  public CollectiveData(List<Integer> list, long time) {
-    this.list = list;
-    this.time = time;
+  /**
+   * Copy of the timings sharing the payload
+   */
+  public CollectiveData copy() {
+    CollectiveData copy = new CollectiveData();
+    copy.type = type;
+    copy.data = data;
+    copy.sendTime = sendTime.clone();
+    copy.roundTripTime = roundTripTime.clone();
+    copy.roundTrips = roundTrips.clone();
+    copy.task = task;
+    return copy;
   }
 
-  public void addTime(long time) {
-    cumulativeTime += time;
+  /**
+   * Mark the data as sent by the task
+   */
+  public void send(int task) {
+    this.task = task;
+    sendTime[task] = System.nanoTime();
   }
 
-  public List<Integer> getList() {
-    return list;
+  /**
+   * Add the time since the task sent the data
+   */
+  public void receive(int task) {
+    this.task = task;
+    if (sendTime[task] > 0) {
+      roundTripTime[task] += System.nanoTime() - sendTime[task];
+      roundTrips[task]++;
+      sendTime[task] = 0;
+    }
   }
 
-  public long getTime() {
-    return time;
+  /**
+   * Take the timings of the task that last sent or received the other copy
+   */
+  public void merge(CollectiveData other) {
+    int i = other.task;
+    if (i >= 0) {
+      sendTime[i] = other.sendTime[i];
+      roundTripTime[i] = other.roundTripTime[i];
+      roundTrips[i] = other.roundTrips[i];
+    }
   }
 
-  public void setList(List<Integer> list) {
-    this.list = list;
+  public Object getData() {
+    return data;
   }
 
-  public void setTime(long time) {
-    this.time = time;
+  public void setData(Object data) {
+    this.data = data;
   }
 
   @Override
   public String toString() {
-    return "Time:" + cumulativeTime;
+    double[] averages = new double[roundTripTime.length];
+    for (int i = 0; i < averages.length; i++) {
+      averages[i] = roundTrips[i] > 0 ? roundTripTime[i] / 1e6 / roundTrips[i] : 0;
+    }
+    return "Type:" + type + " Round trip ms:" + Arrays.toString(averages);
   }
 }
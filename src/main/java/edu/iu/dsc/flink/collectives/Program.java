@@ -13,15 +13,16 @@ public class Program {
     int size = params.getInt("size", 1000);
     int itr = params.getInt("itr", 10);
     String out = params.get("out", size + "_" + itr + "_" + env.getParallelism());
-    System.out.println(String.format("Using size %d and itr %d", size, itr));
+    CollectiveData.Type type = CollectiveData.Type.valueOf(params.get("type", "INT"));
+    System.out.println(String.format("Using size %d, itr %d and type %s", size, itr, type));
     int coll = params.getInt("col", 0);
     if (coll == 0) {
       System.out.println("******************** Reduce ********************");
-      Reduce reduce = new Reduce(size, itr, env, out);
+      Reduce reduce = new Reduce(size, itr, env, out, type);
       reduce.execute();
     } else if (coll == 1) {
       System.out.println("******************** All Reduce ********************");
-      AllReduce allReduce = new AllReduce(size, itr, env, out);
+      AllReduce allReduce = new AllReduce(size, itr, env, out, type);
       allReduce.execute();
     }
 
@@ -10,13 +10,11 @@ import org.apache.flink.configuration.Configuration;
 import org.apache.flink.core.fs.FileSystem;
 import org.apache.flink.util.Collector;
 
-import java.net.InetAddress;
-import java.util.ArrayList;
 import java.util.List;
 
 public class Reduce extends Collective {
-  public Reduce(int size, int iterations, ExecutionEnvironment env, String outFile) {
-    super(size, iterations, env, outFile);
+  public Reduce(int size, int iterations, ExecutionEnvironment env, String outFile, CollectiveData.Type type) {
+    super(size, iterations, env, outFile, type);
   }
 
   @Override
@@ -36,34 +34,27 @@ public class Reduce extends Collective {
 
       @Override
       public Tuple2<Integer, CollectiveData> map(Integer integer) throws Exception {
-        System.out.println(integer);
-        for (CollectiveData d : data) {
-          d.setTime(System.currentTimeMillis());
-          d.hostName = InetAddress.getLocalHost().getHostName();
-          return new Tuple2<Integer, CollectiveData>(0, d);
-        }
-        return null;
+        // the broadcast data is shared by the tasks, only the timings are copied
+        CollectiveData d = data.get(0).copy();
+        // the data sent by this task in the previous superstep has come back
+        d.receive(id);
+        d.send(id);
+        return new Tuple2<Integer, CollectiveData>(0, d);
       }
     }).withBroadcastSet(loop, "data").groupBy(0).reduceGroup(new GroupReduceFunction<Tuple2<Integer,CollectiveData>, CollectiveData>() {
-       @Override
-       public void reduce(Iterable<Tuple2<Integer, CollectiveData>> iterable, Collector<CollectiveData> collector) throws Exception {
-         String hostName = InetAddress.getLocalHost().getHostName();
-         long time = 0;
-         List<CollectiveData> list = new ArrayList<CollectiveData>();
+      @Override
+      public void reduce(Iterable<Tuple2<Integer, CollectiveData>> iterable, Collector<CollectiveData> collector) throws Exception {
+        CollectiveData reduced = null;
         for (Tuple2<Integer, CollectiveData> t : iterable) {
-          CollectiveData d = t.f1;
-          if (d.hostName.equals(hostName)) {
-            time = d.getTime();
+          if (reduced == null) {
+            reduced = t.f1;
+          } else {
+            reduced.merge(t.f1);
           }
-          list.add(d);
         }
-         long nowTime = System.currentTimeMillis();
-        for (CollectiveData d : list) {
-          d.addTime(nowTime - time);
-          collector.collect(d);
-        }
-       }
-     });
+        collector.collect(reduced);
+      }
+    });
 
     DataSet<CollectiveData> finalData = loop.closeWith(dataSet);
     finalData.writeAsText(outFile, FileSystem.WriteMode.OVERWRITE);
@@ -1,44 +1,96 @@
 package edu.iu.dsc.flink.damds;
 
-import edu.indiana.soic.spidal.common.MatrixUtils;
-import edu.indiana.soic.spidal.common.WeightsWrap1D;
 import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
 import edu.iu.dsc.flink.mm.ShortMatrixBlock;
 import org.apache.flink.api.common.functions.GroupReduceFunction;
+import org.apache.flink.api.common.functions.MapFunction;
 import org.apache.flink.api.common.functions.RichMapFunction;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.util.Collector;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.TreeSet;
 
 public class BC {
+  /**
+   * Calculate BC = BofZ * preX. The stress of preX is calculated in the same pass over the distances
+   * and is kept in the stress property of BC, see {@link #stress(DataSet)}. Inside a stress iteration
+   * the stress is also added to the {@link ScalarAggregators#PRE_STRESS} aggregator. With the upper
+   * triangles of the matrices the partials of the blocks cover all the rows and are added up, see
+   * {@link TriangularMatrix}.
+   */
   public static DataSet<Matrix> calculate(DataSet<Matrix> prex,
-                                          DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distancesWeights) {
-    DataSet<Matrix> dataSet = distancesWeights.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Tuple2<Integer, Matrix>>() {
+                                          DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distancesWeights,
+                                          Configuration parameters) {
+    DataSet<Tuple2<Integer, Matrix>> partials = distancesWeights.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Tuple2<Integer, Matrix>>() {
+      double[] simpleWeights;
+      boolean sammon;
+      DistanceTransform transform;
+      HeatedDistances heatedDistances;
+      // one row of BofZ per thread, reused for all the rows of all the blocks of this task
+      double[][] bofZRows;
+      int threadCount;
+
+      @Override
+      public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        threadCount = parameters.getInteger(Constants.THREAD_COUNT, 1);
+        simpleWeights = Weights.loadSimpleWeights(parameters);
+        sammon = parameters.getBoolean(Constants.SAMMON, false);
+        transform = DistanceTransform.of(parameters);
+        heatedDistances = new HeatedDistances(transform);
+      }
+
       @Override
       public Tuple2<Integer, Matrix> map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
         //System.out.println("BC calculate ************");
         List<Matrix> matrix = getRuntimeContext().getBroadcastVariable("prex");
+        Matrix prexMatrix = matrix.get(0);
         ShortMatrixBlock distanceBlock = tuple.f0;
         ShortMatrixBlock weightBlock = tuple.f1;
-        Matrix prexMatrix = matrix.get(0);
-        double tCur = (double) prexMatrix.getProperties().get("tCur");
-        double[][] internalBofZ = new double[distanceBlock.getBlockRows()][];
-        for (int i = 0; i < distanceBlock.getBlockRows(); i++) {
-          internalBofZ[i] = new double[distanceBlock.getMatrixCols()];
-        }
-        double[] threadPartialBCInternalMM = new double[prexMatrix.getCols() * distanceBlock.getBlockRows()];
-        WeightsWrap1D weights = new WeightsWrap1D(weightBlock.getData(), null, false, weightBlock.getMatrixCols());
-        calculateBCInternal(prexMatrix.getData(), prexMatrix.getCols(), tCur, distanceBlock.getData(), distanceBlock.getBlockRows(),
-            internalBofZ, threadPartialBCInternalMM, distanceBlock.getBlockRows(), distanceBlock.getStart(), distanceBlock.getMatrixCols(), weights);
-
-        Matrix retMatrix = new Matrix(threadPartialBCInternalMM, distanceBlock.getBlockRows(), prexMatrix.getCols(), false);
-        return new Tuple2<Integer, Matrix>(distanceBlock.getIndex(), retMatrix);
+        double[] heated = heatedDistances.get(prexMatrix.getState().tCur, prexMatrix.getCols());
+        double invs = prexMatrix.getState().invs;
+        if (bofZRows == null || bofZRows[0].length != distanceBlock.getMatrixCols()) {
+          bofZRows = new double[threadCount][distanceBlock.getMatrixCols()];
+        }
+        int rows = distanceBlock.isUpperTriangular() ? distanceBlock.getMatrixRows() : distanceBlock.getBlockRows();
+        double[] threadPartialBCInternalMM = new double[prexMatrix.getCols() * rows];
+        Weights weights = new Weights(weightBlock, simpleWeights);
+        if (sammon) {
+          weights.useSammonWeights(prexMatrix.getState().avgDist);
+        }
+        double stress = distanceBlock.isUpperTriangular()
+            ? calculateTriangularBC(prexMatrix.getData(), prexMatrix.getCols(), heated, distanceBlock,
+                threadPartialBCInternalMM, weights, transform, threadCount)
+            : calculateBC(prexMatrix.getData(), prexMatrix.getCols(), heated, distanceBlock,
+                bofZRows, threadPartialBCInternalMM, weights, transform, threadCount);
+
+        Matrix retMatrix = new Matrix(threadPartialBCInternalMM, rows, prexMatrix.getCols(),
+            distanceBlock.getIndex(), false);
+        retMatrix.getState().stress = stress * invs;
+        ScalarAggregators.add(getRuntimeContext(), ScalarAggregators.PRE_STRESS, stress * invs);
+        // keyed by the first row of the block
+        return new Tuple2<Integer, Matrix>(distanceBlock.getStart(), retMatrix);
       }
-    }).withBroadcastSet(prex, "prex").reduceGroup(new GroupReduceFunction<Tuple2<Integer, Matrix>, Matrix>() {
+    }).returns(MatrixTypes.INDEXED_MATRIX).withBroadcastSet(prex, "prex").withParameters(parameters);
+    if (TriangularMatrix.isTriangular(parameters)) {
+      return TriangularMatrix.sum(partials.map(new MapFunction<Tuple2<Integer, Matrix>, Matrix>() {
+        @Override
+        public Matrix map(Tuple2<Integer, Matrix> t) throws Exception {
+          return t.f1;
+        }
+      }).returns(MatrixTypes.MATRIX), parameters);
+    }
+    if (NodeAggregator.isEnabled(parameters)) {
+      partials = new RowBlockAggregator().aggregate(partials, MatrixTypes.INDEXED_MATRIX, parameters);
+    }
+
+    DataSet<Matrix> dataSet = partials.reduceGroup(new GroupReduceFunction<Tuple2<Integer, Matrix>, Matrix>() {
       @Override
       public void reduce(Iterable<Tuple2<Integer, Matrix>> iterable, Collector<Matrix> collector) throws Exception {
         TreeSet<Tuple2<Integer, Matrix>> set = new TreeSet<Tuple2<Integer, Matrix>>(new Comparator<Tuple2<Integer, Matrix>>() {
@@ -50,6 +102,7 @@ public class BC {
         // gather the reduce
         int rows = 0;
         int cols = 0;
+        double stress = 0;
         for (Tuple2<Integer, Matrix> t : iterable) {
           set.add(t);
           rows += t.f1.getRows();
@@ -58,80 +111,332 @@ public class BC {
         int cellCount = 0;
         double[] vals = new double[rows * cols];
         for (Tuple2<Integer, Matrix> t : set) {
+          // added in the order of the rows, so the sum does not depend on the order the blocks arrive
+          stress += t.f1.getState().stress;
           //System.out.printf("copy vals.size=%d rowCount=%d f1.length=%d\n", rows, cellCount, t.f1.getData().length);
           System.arraycopy(t.f1.getData(), 0, vals, cellCount, t.f1.getData().length);
           cellCount += t.f1.getData().length;
         }
         Matrix retMatrix = new Matrix(vals, rows, cols, false);
+        retMatrix.getState().stress = stress;
         collector.collect(retMatrix);
       }
-    });
+    }).returns(MatrixTypes.MATRIX);
     return dataSet;
   }
 
-  private static void calculateBCInternal(
-      double[] preX, int targetDimension, double tCur,
-      short[] distances, int blockSize,
-      double[][] internalBofZ, double[] outMM, int blockRowCount, int rowStartIndex, int globalColCount, WeightsWrap1D weightsWrap1D) {
+  /**
+   * Joins the row blocks of BC of a group that follow each other into a single block and adds up
+   * their stress. The blocks are keyed by their index, the joined block keeps the first row and the
+   * index of its first block.
+   */
+  private static class RowBlockAggregator extends NodeAggregator<Tuple2<Integer, Matrix>> {
+    @Override
+    protected int key(Tuple2<Integer, Matrix> partial) {
+      return partial.f1.getIndex();
+    }
+
+    @Override
+    protected List<Tuple2<Integer, Matrix>> combine(List<Tuple2<Integer, Matrix>> partials) {
+      List<Tuple2<Integer, Matrix>> combined = new ArrayList<Tuple2<Integer, Matrix>>();
+      int start = 0;
+      while (start < partials.size()) {
+        int end = start + 1;
+        int rows = partials.get(start).f1.getRows();
+        while (end < partials.size() && partials.get(end).f0 == partials.get(start).f0 + rows) {
+          rows += partials.get(end).f1.getRows();
+          end++;
+        }
+        if (end - start == 1) {
+          combined.add(partials.get(start));
+        } else {
+          int cols = partials.get(start).f1.getCols();
+          double[] vals = new double[rows * cols];
+          int cellCount = 0;
+          double stress = 0;
+          for (int i = start; i < end; i++) {
+            Matrix m = partials.get(i).f1;
+            System.arraycopy(m.getData(), 0, vals, cellCount, m.getData().length);
+            cellCount += m.getData().length;
+            stress += m.getState().stress;
+          }
+          Matrix block = new Matrix(vals, rows, cols, partials.get(start).f1.getIndex(), false);
+          block.getState().stress = stress;
+          combined.add(new Tuple2<Integer, Matrix>(partials.get(start).f0, block));
+        }
+        start = end;
+      }
+      return combined;
+    }
+  }
+
+  /**
+   * The stress of preX calculated along with BC
+   */
+  public static DataSet<Double> stress(DataSet<Matrix> bc) {
+    return bc.map(new MapFunction<Matrix, Double>() {
+      @Override
+      public Double map(Matrix matrix) throws Exception {
+        return matrix.getState().stress;
+      }
+    });
+  }
 
-    calculateBofZ(preX, targetDimension, tCur,
-        distances, internalBofZ, blockRowCount, rowStartIndex, globalColCount, weightsWrap1D);
+  /**
+   * Split the rows of the block across the threads, each thread writes its own rows of the output.
+   * Returns the stress of the block without the 1 / sum of squares factor.
+   */
+  private static double calculateBC(final double[] preX, final int targetDimension, final double[] heated,
+                                    final ShortMatrixBlock distanceBlock, final double[][] bofZRows,
+                                    final double[] outMM, final Weights weights, final DistanceTransform transform,
+                                    int threadCount) {
+    final double[] threadPartialStress = new double[threadCount];
+    ParallelOps.parallelFor(threadCount, distanceBlock.getBlockRows(), new ParallelOps.RowRangeTask() {
+      @Override
+      public void run(int thread, int startRow, int endRow) {
+        if (distanceBlock.isSparse()) {
+          threadPartialStress[thread] = calculateSparseBCInternal(preX, targetDimension, heated, distanceBlock,
+              outMM, startRow, endRow, weights, transform);
+          return;
+        }
+        threadPartialStress[thread] = calculateBCInternal(preX, targetDimension, heated, distanceBlock.getData(),
+            bofZRows[thread], outMM, startRow, endRow, distanceBlock.getStart(), distanceBlock.getMatrixCols(),
+            weights, transform);
+      }
+    });
+    double stress = 0;
+    for (double s : threadPartialStress) {
+      stress += s;
+    }
+    return stress;
+  }
 
-    // Next we can calculate the BofZ * preX.
-    MatrixUtils.matrixMultiply(internalBofZ, preX,
-        blockRowCount, targetDimension,
-        globalColCount, blockSize, outMM);
+  /**
+   * BofZ * preX of a triangular block for all the rows, each thread adds in to its own copy of the
+   * output. Returns the stress of the block and the mirrored entries without the 1 / sum of squares
+   * factor.
+   */
+  private static double calculateTriangularBC(final double[] preX, final int targetDimension, final double[] heated,
+                                              final ShortMatrixBlock distanceBlock, final double[] outMM,
+                                              final Weights weights, final DistanceTransform transform,
+                                              int threadCount) {
+    final double[] threadPartialStress = new double[threadCount];
+    final double[][] threadMM = TriangularMatrix.threadPartials(outMM, threadCount);
+    ParallelOps.parallelFor(threadCount, distanceBlock.getBlockRows(), new ParallelOps.RowRangeTask() {
+      @Override
+      public void run(int thread, int startRow, int endRow) {
+        threadPartialStress[thread] = calculateTriangularBCInternal(preX, targetDimension, heated, distanceBlock,
+            threadMM[thread], startRow, endRow, weights, transform);
+      }
+    });
+    TriangularMatrix.sumThreads(threadMM);
+    double stress = 0;
+    for (double s : threadPartialStress) {
+      stress += s;
+    }
+    return stress;
   }
 
-  private static void calculateBofZ(
-      double[] preX, int targetDimension, double tCur, short[] distances,
-      double[][] outBofZ, int blockRowCount, int rowStartIndex, int globalColCount, WeightsWrap1D weights) {
+  /**
+   * Add BofZ * preX of the entries of the rows [startRow, endRow) of a triangular block and of their
+   * mirrors, outMM is indexed by the global row. The diagonal of a row of BofZ is minus the sum of
+   * the row, so an entry b_ij adds b_ij * (x_j - x_i) to the row i and b_ij * (x_i - x_j) to the row j.
+   */
+  private static double calculateTriangularBCInternal(
+      double[] preX, int targetDimension, double[] heated, ShortMatrixBlock block, double[] outMM,
+      int startRow, int endRow, Weights weights, DistanceTransform transform) {
+    short[] distances = block.getData();
+    int[] columns = block.getColumns();
 
-    double vBlockValue = -1;
-    double[] outBofZLocalRow;
-    double origD, weight, dist;
+    int globalRow, globalCol, rowEntry, rowEnd, firstColumn, rowOffset, colOffset;
+    double origD, weight, dist, b, delta, heatD, tmpD;
+    double sigma = 0;
+    for (int localRow = startRow; localRow < endRow; ++localRow) {
+      globalRow = localRow + block.getStart();
+      rowOffset = globalRow * targetDimension;
+      rowEntry = block.getRowEntry(localRow);
+      rowEnd = block.getRowEntry(localRow + 1);
+      firstColumn = block.getFirstColumn(localRow);
+      for (int e = rowEntry; e < rowEnd; e++) {
+        globalCol = columns != null ? columns[e] : firstColumn + e - rowEntry;
+        origD = transform.getDistance(distances[e]);
+        weight = weights.getWeightAt(e, localRow, globalCol, origD);
+        if (globalRow == globalCol) {
+          if (origD >= 0) {
+            tmpD = heated[distances[e]];
+            sigma += weight * tmpD * tmpD;
+          }
+          continue;
+        }
+        if (origD < 0 || weight == 0) {
+          continue;
+        }
+        dist = DAMDSUtils.calculateEuclideanDist(preX, globalRow, globalCol, targetDimension);
+        heatD = heated[distances[e]];
+        tmpD = heatD - dist;
+        // the mirrored entry has the same stress
+        sigma += 2 * weight * tmpD * tmpD;
+        if (dist < 1.0E-10 || heatD == 0) {
+          continue;
+        }
+        b = -weight * heatD / dist;
+        colOffset = globalCol * targetDimension;
+        for (int k = 0; k < targetDimension; k++) {
+          delta = b * (preX[colOffset + k] - preX[rowOffset + k]);
+          outMM[rowOffset + k] += delta;
+          outMM[colOffset + k] -= delta;
+        }
+      }
+    }
+    return sigma;
+  }
 
-    double diff = 0.0;
-    if (tCur > 10E-10) {
-      diff = Math.sqrt(2.0 * targetDimension) * tCur;
+  /**
+   * Calculate BofZ * preX for the rows [startRow, endRow) of the block, one row of BofZ at a time.
+   * A row is first filled in to bofZRow along with its diagonal and then multiplied with preX,
+   * adding the columns in ascending order, so the result is the same as multiplying the full BofZ.
+   * Returns the stress of the rows, added in the same order as {@link Stress}.
+   */
+  private static double calculateBCInternal(
+      double[] preX, int targetDimension, double[] heated, short[] distances, double[] bofZRow,
+      double[] outMM, int startRow, int endRow, int rowStartIndex, int globalColCount, Weights weights,
+      DistanceTransform transform) {
+    int outOffset, xOffset;
+    double b;
+    double sigma = 0;
+    for (int localRow = startRow; localRow < endRow; ++localRow) {
+      sigma = calculateBofZRow(preX, targetDimension, heated, distances, bofZRow, localRow, rowStartIndex,
+          globalColCount, weights, transform, sigma);
+
+      // Next we can calculate the row of BofZ * preX.
+      outOffset = localRow * targetDimension;
+      for (int globalCol = 0; globalCol < globalColCount; globalCol++) {
+        b = bofZRow[globalCol];
+        xOffset = globalCol * targetDimension;
+        for (int k = 0; k < targetDimension; k++) {
+          outMM[outOffset + k] += b * preX[xOffset + k];
+        }
+      }
     }
+    return sigma;
+  }
 
-    int globalRow, procLocalRow;
-    for (int localRow = 0; localRow < blockRowCount; ++localRow) {
+  /**
+   * Calculate BofZ * preX for the rows [startRow, endRow) of a sparse block. Only the stored entries
+   * have a non zero BofZ, so the entries are multiplied with preX as they are calculated and the
+   * diagonal of the row is added at the end. The stress of the missing entries is 0.
+   */
+  private static double calculateSparseBCInternal(
+      double[] preX, int targetDimension, double[] heated, ShortMatrixBlock block, double[] outMM,
+      int startRow, int endRow, Weights weights, DistanceTransform transform) {
+    short[] distances = block.getData();
+    int[] rowOffsets = block.getRowOffsets();
+    int[] columns = block.getColumns();
+    int rowStartIndex = block.getStart();
+
+    int globalRow, globalCol, outOffset, xOffset;
+    double origD, weight, dist, b, bDiagonal, heatD, tmpD;
+    double sigma = 0;
+    for (int localRow = startRow; localRow < endRow; ++localRow) {
       globalRow = localRow + rowStartIndex;
-      procLocalRow = localRow;
-      outBofZLocalRow = outBofZ[localRow];
-      outBofZLocalRow[globalRow] = 0;
-      for (int globalCol = 0; globalCol < globalColCount; globalCol++) {
-        /*
-				 * B_ij = - w_ij * delta_ij / d_ij(Z), if (d_ij(Z) != 0) 0,
-				 * otherwise v_ij = - w_ij.
-				 *
-				 * Therefore, B_ij = v_ij * delta_ij / d_ij(Z). 0 (if d_ij(Z) >=
-				 * small threshold) --> the actual meaning is (if d_ij(Z) == 0)
-				 * BofZ[i][j] = V[i][j] * deltaMat[i][j] / CalculateDistance(ref
-				 * preX, i, j);
-				 */
-        // this is for the i!=j case. For i==j case will be calculated
-        // separately (see above).
-        if (globalRow == globalCol) continue;
-
-        origD = distances[procLocalRow * globalColCount + globalCol] * DAMDSUtils.INV_SHORT_MAX;
-        weight = weights.getWeight(procLocalRow, globalCol);
+      outOffset = localRow * targetDimension;
+      bDiagonal = 0;
+      for (int e = rowOffsets[localRow]; e < rowOffsets[localRow + 1]; e++) {
+        globalCol = columns[e];
+        origD = transform.getDistance(distances[e]);
+        weight = weights.getWeightAt(e, localRow, globalCol, origD);
+        if (globalRow == globalCol) {
+          if (origD >= 0) {
+            tmpD = heated[distances[e]];
+            sigma += weight * tmpD * tmpD;
+          }
+          continue;
+        }
         if (origD < 0 || weight == 0) {
           continue;
         }
         dist = DAMDSUtils.calculateEuclideanDist(preX, globalRow, globalCol, targetDimension);
-        if (dist >= 1.0E-10 && diff < origD) {
-          outBofZLocalRow[globalCol] = (weight * vBlockValue * (origD - diff) / dist);
-        } else {
-          outBofZLocalRow[globalCol] = 0;
+        heatD = heated[distances[e]];
+        tmpD = heatD - dist;
+        sigma += weight * tmpD * tmpD;
+        if (dist < 1.0E-10 || heatD == 0) {
+          continue;
         }
-
-        outBofZLocalRow[globalRow] -= outBofZLocalRow[globalCol];
+        b = -weight * heatD / dist;
+        bDiagonal -= b;
+        xOffset = globalCol * targetDimension;
+        for (int k = 0; k < targetDimension; k++) {
+          outMM[outOffset + k] += b * preX[xOffset + k];
+        }
+      }
+      xOffset = globalRow * targetDimension;
+      for (int k = 0; k < targetDimension; k++) {
+        outMM[outOffset + k] += bDiagonal * preX[xOffset + k];
       }
     }
+    return sigma;
   }
 
+  /**
+   * Fill a row of BofZ and add the stress of the row to sigma, the heated distances are looked up
+   * in the table of the temperature, see {@link HeatedDistances}
+   * @return the updated sigma
+   */
+  private static double calculateBofZRow(
+      double[] preX, int targetDimension, double[] heated, short[] distances,
+      double[] outBofZLocalRow, int localRow, int rowStartIndex, int globalColCount, Weights weights,
+      DistanceTransform transform, double sigma) {
+
+    double vBlockValue = -1;
+    short distance;
+    double origD, weight, dist;
+    double heatD, tmpD;
+
+    int globalRow = localRow + rowStartIndex;
+    int procLocalRow = localRow;
+    outBofZLocalRow[globalRow] = 0;
+    for (int globalCol = 0; globalCol < globalColCount; globalCol++) {
+      /*
+       * B_ij = - w_ij * delta_ij / d_ij(Z), if (d_ij(Z) != 0) 0,
+       * otherwise v_ij = - w_ij.
+       *
+       * Therefore, B_ij = v_ij * delta_ij / d_ij(Z). 0 (if d_ij(Z) >=
+       * small threshold) --> the actual meaning is (if d_ij(Z) == 0)
+       * BofZ[i][j] = V[i][j] * deltaMat[i][j] / CalculateDistance(ref
+       * preX, i, j);
+       */
+      // this is for the i!=j case. For i==j case will be calculated
+      // separately (see above).
+      distance = distances[procLocalRow * globalColCount + globalCol];
+      origD = transform.getDistance(distance);
+      weight = weights.getWeight(procLocalRow, globalCol, origD);
+      if (globalRow == globalCol) {
+        // the stress of the diagonal, the euclidean distance is 0
+        if (origD >= 0) {
+          tmpD = heated[distance];
+          sigma += weight * tmpD * tmpD;
+        }
+        continue;
+      }
+
+      if (origD < 0 || weight == 0) {
+        // the row is reused, so the skipped elements have to be cleared
+        outBofZLocalRow[globalCol] = 0;
+        continue;
+      }
+      dist = DAMDSUtils.calculateEuclideanDist(preX, globalRow, globalCol, targetDimension);
+      heatD = heated[distance];
+      if (dist >= 1.0E-10 && heatD > 0) {
+        outBofZLocalRow[globalCol] = (weight * vBlockValue * heatD / dist);
+      } else {
+        outBofZLocalRow[globalCol] = 0;
+      }
+
+      outBofZLocalRow[globalRow] -= outBofZLocalRow[globalCol];
 
+      tmpD = heatD - dist;
+      sigma += weight * tmpD * tmpD;
+    }
+    return sigma;
+  }
 }
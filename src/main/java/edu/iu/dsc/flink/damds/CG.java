@@ -1,174 +1,347 @@
 package edu.iu.dsc.flink.damds;
 
-import edu.indiana.soic.spidal.common.MatrixUtils;
-import edu.indiana.soic.spidal.common.WeightsWrap1D;
 import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixState;
+import edu.iu.dsc.flink.mm.MatrixTypes;
 import edu.iu.dsc.flink.mm.ShortMatrixBlock;
-import org.apache.flink.api.common.functions.FilterFunction;
+import org.apache.flink.api.common.functions.BroadcastVariableInitializer;
 import org.apache.flink.api.common.functions.MapFunction;
 import org.apache.flink.api.common.functions.RichGroupReduceFunction;
 import org.apache.flink.api.common.functions.RichMapFunction;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.operators.IterativeDataSet;
+import org.apache.flink.api.java.operators.MapOperator;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.util.Collector;
 
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
 import java.util.*;
 
 public class CG {
+  /**
+   * The inverse of the broadcast diagonal, shared by the tasks of a TaskManager
+   */
+  private static final BroadcastVariableInitializer<Matrix, double[]> INVERSE_DIAGONAL =
+      new BroadcastVariableInitializer<Matrix, double[]>() {
+        @Override
+        public double[] initializeBroadcastVariable(Iterable<Matrix> data) {
+          double[] diagonal = data.iterator().next().getData();
+          double[] inverse = new double[diagonal.length];
+          for (int i = 0; i < diagonal.length; ++i) {
+            inverse[i] = 1.0 / diagonal[i];
+          }
+          return inverse;
+        }
+      };
+
   public static DataSet<Matrix> calculateConjugateGradient(DataSet<Matrix> preX, DataSet<Matrix> BC,
-                                                           DataSet<Tuple2<Matrix, ShortMatrixBlock>> vArray,
+                                                           DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
                                                            Configuration parameters, int cgIter) {
-    DataSet<Matrix> MMr = calculateMM(preX, vArray, parameters);
-//    MMr.writeAsText("mmr0", FileSystem.WriteMode.OVERWRITE);
-    DataSet<Tuple2<Matrix, Matrix>> newBC = MMr.map(new RichMapFunction<Matrix, Tuple2<Matrix, Matrix>>() {
-      double cgThreshold;
-      boolean exactCG;
-      @Override
-      public void open(Configuration parameters) throws Exception {
-        super.open(parameters);
-        cgThreshold = parameters.getDouble(Constants.CG_THRESHOLD, 0.00001);
-        exactCG = parameters.getBoolean(Constants.ExactCG, false);
-      }
+    DataSet<Matrix> diagonal = diagonal(vArray, parameters);
+    DataSet<Tuple3<Matrix, Matrix, Matrix>> prexbc = initConjugateGradient(preX, null, BC, vArray, diagonal, parameters);
 
-      @Override
-      public Tuple2<Matrix, Matrix> map(Matrix MMR) throws Exception {
-        List<Matrix> bcMatrix = getRuntimeContext().getBroadcastVariable("bc");
-        Matrix BCM = bcMatrix.get(0);
-
-        calculateMMRBC(MMR, BCM);
-
-        double rTr = InnerProductMatrix(MMR);
-//        System.out.println("###########################  init rTr: " + rTr);
-        MMR.addProperty("rTr", rTr);
-        MMR.addProperty("testEnd", rTr * cgThreshold);
-        MMR.addProperty("break", false);
-        MMR.addProperty("exactCG", exactCG);
-
-//        writeToFile("mmr1", MMR.toString());
-//        writeToFile("bc2", BCM.toString());
-        return new Tuple2<Matrix, Matrix>(BCM, MMR);
-      }
-    }).withBroadcastSet(BC, "bc").withParameters(parameters);
+    // now loop
+    IterativeDataSet<Tuple3<Matrix, Matrix, Matrix>> prexbcloop = prexbc.iterate(cgIter);
+    // the loop stops on the convergence aggregated by the cg step instead of a termination data set
+    ScalarAggregators.registerCGConvergence(prexbcloop);
+    DataSet<Tuple3<Matrix, Matrix, Matrix>> newLoop = conjugateGradientStep(prexbcloop, vArray, diagonal, parameters);
+
+    // done with BC iterations
+    DataSet<Tuple3<Matrix, Matrix, Matrix>> finalBC = prexbcloop.closeWith(newLoop);
 
-//    newBC.writeAsText("bc2", FileSystem.WriteMode.OVERWRITE);
+    return finalBC.map(new ExtractPrex()).returns(MatrixTypes.MATRIX);
+  }
+
+  /**
+   * Same computation as {@link #calculateConjugateGradient} but with the cg loop unrolled into cgIter
+   * steps, so that it can be used inside an outer bulk iteration (Flink does not support nested iterations).
+   * Once the loop has converged the remaining steps pass the loop state through without any work.
+   */
+  public static DataSet<Matrix> calculateConjugateGradientUnrolled(DataSet<Matrix> preX, DataSet<Matrix> BC,
+                                                                   DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
+                                                                   Configuration parameters, int cgIter) {
+    return solution(conjugateGradientLoopUnrolled(preX, null, BC, vArray, parameters, cgIter));
+  }
+
+  /**
+   * The unrolled cg loop started from x0 = start. If the warmStart flag of the start state is set,
+   * products holds V x0 in its first rows followed by V preX, both carried from the previous stress
+   * iteration, and the matrix multiplication of the start is skipped. The loop still stops relative
+   * to the residual of preX. Returns the final loop state (x, p, r), BC - r is V x.
+   */
+  public static DataSet<Tuple3<Matrix, Matrix, Matrix>> conjugateGradientLoopUnrolled(DataSet<Matrix> start, DataSet<Matrix> products,
+                                                                                   DataSet<Matrix> BC,
+                                                                                   DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
+                                                                                   Configuration parameters, int cgIter) {
+    DataSet<Matrix> diagonal = diagonal(vArray, parameters);
+    DataSet<Tuple3<Matrix, Matrix, Matrix>> loop = initConjugateGradient(start, products, BC, vArray, diagonal, parameters);
+    for (int i = 0; i < cgIter; i++) {
+      loop = conjugateGradientStep(loop, vArray, diagonal, parameters);
+    }
+    return loop;
+  }
+
+  /**
+   * The solution x of the cg loop state
+   */
+  public static DataSet<Matrix> solution(DataSet<Tuple3<Matrix, Matrix, Matrix>> loop) {
+    return loop.map(new ExtractPrex()).returns(MatrixTypes.MATRIX);
+  }
 
+  private static DataSet<Tuple3<Matrix, Matrix, Matrix>> initConjugateGradient(DataSet<Matrix> preX, DataSet<Matrix> products,
+                                                                               DataSet<Matrix> BC,
+                                                                               DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
+                                                                               DataSet<Matrix> diagonal,
+                                                                               Configuration parameters) {
+    DataSet<Matrix> MMr = calculateMM(preX, vArray, parameters);
+    MapOperator<Matrix, Tuple2<Matrix, Matrix>> init = MMr.map(new InitResidual(products != null)).returns(MatrixTypes.MATRIX_PAIR)
+        .withBroadcastSet(BC, "bc").withParameters(parameters);
+    if (products != null) {
+      init = init.withBroadcastSet(products, "products");
+    }
+    DataSet<Tuple2<Matrix, Matrix>> newBC = withDiagonal(init, diagonal);
     // now compbine prex and bc because flink cannot loop over bc and return prex
-    DataSet<Tuple3<Matrix, Matrix, Matrix>> prexbc = newBC.map(new RichMapFunction<Tuple2<Matrix, Matrix>, Tuple3<Matrix, Matrix, Matrix>>() {
-      @Override
-      public Tuple3<Matrix, Matrix, Matrix> map(Tuple2<Matrix, Matrix> tuple) throws Exception {
-        Matrix bcMatrix = tuple.f0;
-        List<Matrix> prexMatrixList = getRuntimeContext().getBroadcastVariable("prex");
-        Matrix prexMatrix = prexMatrixList.get(0);
-        prexMatrix.addProperty("cgItr", 0);
-        Matrix mmrMatrix = tuple.f1;
-        return new Tuple3<Matrix, Matrix, Matrix>(prexMatrix, bcMatrix, mmrMatrix);
+    return newBC.map(new CombinePrex()).returns(MatrixTypes.MATRIX_TRIPLE).withBroadcastSet(preX, "prex");
+  }
+
+  private static DataSet<Tuple3<Matrix, Matrix, Matrix>> conjugateGradientStep(DataSet<Tuple3<Matrix, Matrix, Matrix>> loop,
+                                                                               DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
+                                                                               DataSet<Matrix> diagonal,
+                                                                               Configuration parameters) {
+    // only the search direction p is broadcast to the matrix multiplication, not the whole loop state
+    DataSet<Matrix> p = loop.map(new ExtractDirection()).returns(MatrixTypes.MATRIX);
+    DataSet<Matrix> MMap = calculateMMBC(p, vArray, parameters);
+    return withDiagonal(loop.map(new CGStep()).returns(MatrixTypes.MATRIX_TRIPLE).withBroadcastSet(MMap, "mmap")
+        .withParameters(parameters), diagonal);
+  }
+
+  /**
+   * The diagonal of V gathered from the vArray blocks, used as the Jacobi preconditioner of the cg loop.
+   * Returns null if the loop is not preconditioned.
+   */
+  private static DataSet<Matrix> diagonal(DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
+                                          Configuration parameters) {
+    if (!parameters.getBoolean(Constants.JACOBI_PRECONDITIONER, false)) {
+      return null;
+    }
+    return gather(vArray.map(new ExtractDiagonal()).returns(MatrixTypes.MATRIX), parameters);
+  }
+
+  private static <T> DataSet<T> withDiagonal(MapOperator<?, T> operator, DataSet<Matrix> diagonal) {
+    return diagonal != null ? operator.withBroadcastSet(diagonal, "diagonal") : operator;
+  }
+
+  /**
+   * z = M^-1 r with M the diagonal of V, the rows of r share the diagonal element of the point.
+   * Returns r^T z.
+   */
+  private static double precondition(double[] inverseDiagonal, double[] r, double[] z, int targetDimension) {
+    double rTz = 0;
+    int iOffset;
+    for (int i = 0; i < inverseDiagonal.length; ++i) {
+      iOffset = i * targetDimension;
+      for (int j = 0; j < targetDimension; ++j) {
+        z[iOffset + j] = r[iOffset + j] * inverseDiagonal[i];
+        rTz += r[iOffset + j] * z[iOffset + j];
       }
-    }).withBroadcastSet(preX, "prex");
+    }
+    return rTz;
+  }
 
-    // now loop
-    IterativeDataSet<Tuple3<Matrix, Matrix, Matrix>> prexbcloop = prexbc.iterate(cgIter);
-    //IterativeDataSet<Matrix> bcLoop = newBC.iterate(cgIter);
-    DataSet<Matrix> MMap = calculateMMBC(prexbcloop, vArray, parameters);
+  /**
+   * The residual r = BC - V x0 and the first search direction p = r, or p = M^-1 r if preconditioned.
+   * V x0 is the result of the matrix multiplication unless it is carried in the products.
+   */
+  private static class InitResidual extends RichMapFunction<Matrix, Tuple2<Matrix, Matrix>> {
+    double cgThreshold;
+    boolean exactCG;
+    boolean preconditioned;
+    // the products of the start are broadcast
+    boolean carried;
+
+    public InitResidual(boolean carried) {
+      this.carried = carried;
+    }
 
-    DataSet<Tuple3<Matrix, Matrix, Matrix>> newLoop = prexbcloop.map(new RichMapFunction<Tuple3<Matrix, Matrix, Matrix>, Tuple3<Matrix, Matrix, Matrix>>() {
-      @Override
-      public Tuple3<Matrix, Matrix, Matrix> map(Tuple3<Matrix, Matrix, Matrix> loop) throws Exception {
-        List<Matrix> mmapList = getRuntimeContext().getBroadcastVariable("mmap");
-        Matrix bcMatrix = loop.f1;
-        Matrix prexMatrix = loop.f0;
-        Matrix mmrMatrix = loop.f2;
-        Matrix mmapMatrix = mmapList.get(0);
-        int cgCount = (int) prexMatrix.getProperties().get("cgItr");
-        cgCount++;
-        prexMatrix.addProperty("cgItr", cgCount);
-        //writeToFile("mmap", mmapMatrix.toString());
-
-        double[] prex = prexMatrix.getData();
-        double[] bc = bcMatrix.getData();
-        double[] mmr = mmrMatrix.getData();
-        double[] mmap = mmapMatrix.getData();
-
-        double rtr = (double) mmrMatrix.getProperties().get("rTr");
-        double innerProduct = innerProductCalculation(bc, mmap);
-        //System.out.println("********************* Inner product: " + innerProduct);
-        double alpha = rtr / innerProduct;
-        //System.out.println("********************* Alpha: " + alpha);
-        //update Xi to Xi+1
-        int iOffset;
-        int numPoints = prexMatrix.getRows();
-        int targetDimension = prexMatrix.getCols();
-        for (int i = 0; i < numPoints; ++i) {
-          iOffset = i * targetDimension;
-          for (int j = 0; j < targetDimension; ++j) {
-            prex[iOffset + j] += alpha * bc[iOffset + j];
+    @Override
+    public void open(Configuration parameters) throws Exception {
+      super.open(parameters);
+      cgThreshold = parameters.getDouble(Constants.CG_THRESHOLD, 0.00001);
+      exactCG = parameters.getBoolean(Constants.ExactCG, false);
+      preconditioned = parameters.getBoolean(Constants.JACOBI_PRECONDITIONER, false);
+    }
+
+    @Override
+    public Tuple2<Matrix, Matrix> map(Matrix MMR) throws Exception {
+      List<Matrix> bcMatrix = getRuntimeContext().getBroadcastVariable("bc");
+      Matrix BCM = bcMatrix.get(0);
+      double[] inverseDiagonal = preconditioned
+          ? getRuntimeContext().<Matrix, double[]>getBroadcastVariableWithInitializer("diagonal", INVERSE_DIAGONAL) : null;
+
+      // the cg loop stops relative to the residual of preX, which is the residual of x0 unless it is warm started
+      double rTr0 = -1;
+      if (carried) {
+        Matrix products = getRuntimeContext().<Matrix>getBroadcastVariable("products").get(0);
+        if (products.getRows() > 0) {
+          double[] bc = BCM.getData();
+          double[] v = products.getData();
+          double[] mmr = MMR.getData();
+          double[] r = new double[bc.length];
+          for (int i = 0; i < bc.length; ++i) {
+            mmr[i] = v[i];
+            r[i] = bc[i] - v[bc.length + i];
           }
+          rTr0 = preconditioned ? precondition(inverseDiagonal, r, new double[r.length], MMR.getCols())
+              : innerProductCalculation(r, r);
         }
+      }
 
-        double testEnd = (double) mmrMatrix.getProperties().get("testEnd");
-        boolean exactCG = (boolean) mmrMatrix.getProperties().get("exactCG");
-        if (rtr < testEnd && !exactCG) {
-          mmrMatrix.addProperty("break", true);
-        }
+      calculateMMRBC(MMR, BCM);
 
-        //update ri to ri+1
-        for (int i = 0; i < numPoints; ++i) {
-          iOffset = i * targetDimension;
-          for (int j = 0; j < targetDimension; ++j) {
-            mmr[iOffset + j] -= alpha * mmap[iOffset + j];
-          }
-        }
+      double rTr;
+      if (preconditioned) {
+        rTr = precondition(inverseDiagonal, MMR.getData(), BCM.getData(), MMR.getCols());
+      } else {
+        rTr = InnerProductMatrix(MMR);
+      }
+      MatrixState state = MMR.getState();
+      state.rTr = rTr;
+      state.testEnd = (rTr0 >= 0 ? rTr0 : rTr) * cgThreshold;
+      state.breakLoop = false;
+      state.exactCG = exactCG;
+      return new Tuple2<Matrix, Matrix>(BCM, MMR);
+    }
+  }
 
-        double rtr1 = InnerProductMatrix(mmrMatrix);
-        //System.out.println("&&&&&&&&&&&&&&&&&&&&&&&&&&&& rtr1: " + rtr1);
-        double beta = rtr1 / rtr;
-        //System.out.println("############################## beta: " + beta);
-        mmrMatrix.addProperty("rTr", rtr1);
-        //update pi to pi+1
-        for (int i = 0; i < numPoints; ++i) {
-          iOffset = i * targetDimension;
-          for (int j = 0; j < targetDimension; ++j) {
-            bc[iOffset + j] = mmr[iOffset + j] + beta * bc[iOffset + j];
-          }
-        }
+  private static class CombinePrex extends RichMapFunction<Tuple2<Matrix, Matrix>, Tuple3<Matrix, Matrix, Matrix>> {
+    @Override
+    public Tuple3<Matrix, Matrix, Matrix> map(Tuple2<Matrix, Matrix> tuple) throws Exception {
+      Matrix bcMatrix = tuple.f0;
+      List<Matrix> prexMatrixList = getRuntimeContext().getBroadcastVariable("prex");
+      Matrix prexMatrix = prexMatrixList.get(0);
+      prexMatrix.getState().cgItr = 0;
+      Matrix mmrMatrix = tuple.f1;
+      return new Tuple3<Matrix, Matrix, Matrix>(prexMatrix, bcMatrix, mmrMatrix);
+    }
+  }
+
+  private static class CGStep extends RichMapFunction<Tuple3<Matrix, Matrix, Matrix>, Tuple3<Matrix, Matrix, Matrix>> {
+    boolean preconditioned;
+    // the preconditioned residual z, reused between the steps
+    double[] z;
 
-        //writeToFile("point", prexMatrix.toString());
+    @Override
+    public void open(Configuration parameters) throws Exception {
+      super.open(parameters);
+      preconditioned = parameters.getBoolean(Constants.JACOBI_PRECONDITIONER, false);
+    }
+
+    @Override
+    public Tuple3<Matrix, Matrix, Matrix> map(Tuple3<Matrix, Matrix, Matrix> loop) throws Exception {
+      List<Matrix> mmapList = getRuntimeContext().getBroadcastVariable("mmap");
+      Matrix bcMatrix = loop.f1;
+      Matrix prexMatrix = loop.f0;
+      Matrix mmrMatrix = loop.f2;
+      // an unrolled loop keeps passing the state after convergence
+      MatrixState state = mmrMatrix.getState();
+      if (state.breakLoop) {
         return loop;
       }
-    }).withBroadcastSet(MMap, "mmap");
+      Matrix mmapMatrix = mmapList.get(0);
+      prexMatrix.getState().cgItr++;
+
+      double[] prex = prexMatrix.getData();
+      double[] bc = bcMatrix.getData();
+      double[] mmr = mmrMatrix.getData();
+      double[] mmap = mmapMatrix.getData();
+
+      double rtr = state.rTr;
+      double innerProduct = innerProductCalculation(bc, mmap);
+      double alpha = rtr / innerProduct;
+      //update Xi to Xi+1
+      int iOffset;
+      int numPoints = prexMatrix.getRows();
+      int targetDimension = prexMatrix.getCols();
+      for (int i = 0; i < numPoints; ++i) {
+        iOffset = i * targetDimension;
+        for (int j = 0; j < targetDimension; ++j) {
+          prex[iOffset + j] += alpha * bc[iOffset + j];
+        }
+      }
 
-    // done with BC iterations
-    DataSet<Tuple3<Matrix, Matrix, Matrix>> finalBC = prexbcloop.closeWith(newLoop,
-        newLoop.filter(new FilterFunction<Tuple3<Matrix, Matrix, Matrix>>() {
-          @Override
-          public boolean filter(Tuple3<Matrix, Matrix, Matrix> loop) throws Exception {
-            Matrix mmrMatrix = loop.f2;
-            boolean aBreak = (boolean) mmrMatrix.getProperties().get("break");
-            return !aBreak;
-          }
-        }));
+      if (rtr < state.testEnd && !state.exactCG) {
+        state.breakLoop = true;
+      }
 
-    DataSet<Matrix> prex = finalBC.map(new RichMapFunction<Tuple3<Matrix, Matrix, Matrix>, Matrix>() {
-      @Override
-      public Matrix map(Tuple3<Matrix, Matrix, Matrix> loop) throws Exception {
-        return loop.f0;
+      //update ri to ri+1
+      for (int i = 0; i < numPoints; ++i) {
+        iOffset = i * targetDimension;
+        for (int j = 0; j < targetDimension; ++j) {
+          mmr[iOffset + j] -= alpha * mmap[iOffset + j];
+        }
       }
-    });
 
-    return prex;
+      double rtr1;
+      double[] direction = mmr;
+      if (preconditioned) {
+        if (z == null || z.length != mmr.length) {
+          z = new double[mmr.length];
+        }
+        double[] inverseDiagonal = getRuntimeContext().getBroadcastVariableWithInitializer("diagonal", INVERSE_DIAGONAL);
+        rtr1 = precondition(inverseDiagonal, mmr, z, targetDimension);
+        direction = z;
+      } else {
+        rtr1 = InnerProductMatrix(mmrMatrix);
+      }
+      // the residual is 0, the next step would divide by it
+      if (rtr1 == 0) {
+        state.breakLoop = true;
+      }
+      double beta = rtr1 / rtr;
+      state.rTr = rtr1;
+      //update pi to pi+1
+      for (int i = 0; i < numPoints; ++i) {
+        iOffset = i * targetDimension;
+        for (int j = 0; j < targetDimension; ++j) {
+          bc[iOffset + j] = direction[iOffset + j] + beta * bc[iOffset + j];
+        }
+      }
+      if (state.breakLoop) {
+        ScalarAggregators.add(getRuntimeContext(), ScalarAggregators.CG_CONVERGED, 1L);
+      }
+      return loop;
+    }
   }
 
-  private static void writeToFile(String file, String content) {
-    try {
-      PrintWriter out = new PrintWriter(file);
-      out.write(content);
-      out.close();
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
+  /**
+   * The search direction p of the loop, with the converged flag of the loop
+   */
+  private static class ExtractDirection implements MapFunction<Tuple3<Matrix, Matrix, Matrix>, Matrix> {
+    @Override
+    public Matrix map(Tuple3<Matrix, Matrix, Matrix> loop) throws Exception {
+      Matrix direction = loop.f1;
+      Matrix p = new Matrix(direction.getData(), direction.getRows(), direction.getCols(), direction.getIndex(), false);
+      p.getState().breakLoop = loop.f2.getState().breakLoop;
+      return p;
+    }
+  }
+
+  /**
+   * The diagonal of V held by a vArray block
+   */
+  private static class ExtractDiagonal implements MapFunction<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>, Matrix> {
+    @Override
+    public Matrix map(Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
+      Matrix v = tuple.f0;
+      return new Matrix(v.getData(), v.getRows(), v.getCols(), v.getIndex(), false);
+    }
+  }
+
+  private static class ExtractPrex implements MapFunction<Tuple3<Matrix, Matrix, Matrix>, Matrix> {
+    @Override
+    public Matrix map(Tuple3<Matrix, Matrix, Matrix> loop) throws Exception {
+      return loop.f0;
     }
   }
 
@@ -182,52 +355,6 @@ public class CG {
     return sum;
   }
 
-  public static DataSet<Double> devide(DataSet<Double> a, DataSet<Double> b) {
-    DataSet<Double> ab = a.map(new RichMapFunction<Double, Double>() {
-      @Override
-      public Double map(Double aDouble) throws Exception {
-        List<Double> bList = getRuntimeContext().getBroadcastVariable("b");
-        double b = bList.get(0);
-        double v = aDouble / b;
-        //System.out.println("################################ Beta: " + v);
-        return v;
-      }
-    }).withBroadcastSet(b, "b");
-    return ab;
-  }
-
-  public static DataSet<Double> bcInnerProductCalculation(DataSet<Tuple3<Matrix, Matrix, Matrix>> aM,
-                                                          DataSet<Matrix> bM) {
-    DataSet<Double> d = aM.map(new RichMapFunction<Tuple3<Matrix, Matrix, Matrix>, Double>() {
-      @Override
-      public Double map(Tuple3<Matrix, Matrix, Matrix> matrix) throws Exception {
-        double[] a = matrix.f1.getData();
-        List<Matrix> bMatrixList = getRuntimeContext().getBroadcastVariable("b");
-        double rtr = (double) matrix.f2.getProperties().get("rTr");
-        Matrix bMatrix = bMatrixList.get(0);
-        double[] b = bMatrix.getData();
-        double sum = 0;
-        if (a.length > 0) {
-          for (int i = 0; i < a.length; ++i) {
-            sum += a[i] * b[i];
-          }
-        }
-        return rtr / sum;
-      }
-    }).withBroadcastSet(bM, "b");
-    return d;
-  }
-
-  private static DataSet<Double> bcInnerProductCalculation(DataSet<Matrix> m) {
-    DataSet<Double> p = m.map(new MapFunction<Matrix, Double>() {
-      @Override
-      public Double map(Matrix matrix) throws Exception {
-        return InnerProductMatrix(matrix);
-      }
-    });
-    return p;
-  }
-
   private static Double InnerProductMatrix(Matrix matrix) {
     double[] a = matrix.getData();
     double sum = 0.0;
@@ -255,168 +382,367 @@ public class CG {
   }
 
   private static DataSet<Matrix> calculateMM(DataSet<Matrix> A,
-                                             DataSet<Tuple2<Matrix, ShortMatrixBlock>> vArray,
+                                             DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray,
                                              Configuration parameters) {
-    DataSet<Matrix> out = vArray.map(new RichMapFunction<Tuple2<Matrix, ShortMatrixBlock>, Matrix>() {
+    DataSet<Matrix> out = vArray.map(new RichMapFunction<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>, Matrix>() {
       int targetDimension;
       int globalCols;
+      double[] simpleWeights;
+      boolean sammon;
+      DistanceTransform transform;
+      int threadCount;
 
       @Override
       public void open(Configuration parameters) throws Exception {
         super.open(parameters);
         this.targetDimension = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
         this.globalCols = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+        this.simpleWeights = Weights.loadSimpleWeights(parameters);
+        this.sammon = parameters.getBoolean(Constants.SAMMON, false);
+        this.transform = DistanceTransform.of(parameters);
+        this.threadCount = parameters.getInteger(Constants.THREAD_COUNT, 1);
       }
 
       @Override
-      public Matrix map(Tuple2<Matrix, ShortMatrixBlock> tuple) throws Exception {
+      public Matrix map(Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
         //System.out.println("Matrix multiply ***************************************");
         List<Matrix> prex = getRuntimeContext().getBroadcastVariable("prex");
         Matrix preXM = prex.get(0);
         Matrix matrx = tuple.f0;
-        ShortMatrixBlock weightBlock = tuple.f1;
-        // todo figure out the weights
-        WeightsWrap1D weightsWrap1D = new WeightsWrap1D(weightBlock.getData(), null, false, globalCols);
-        double[] outMM = new double[matrx.getRows() * targetDimension];
-
-        // todo figure out the details of the calculation
-        calculateMMInternal(preXM.getData(), targetDimension, globalCols, weightsWrap1D,
-            32, matrx.getData(), outMM, matrx.getRows(), matrx.getStartIndex());
-        Matrix out = new Matrix(outMM, matrx.getRows(), targetDimension, matrx.getIndex(), false);
+        int rows = outputRows(tuple);
+        double[] outMM = new double[rows * targetDimension];
+        if (preXM.getState().warmStart) {
+          // the product is carried from the previous stress iteration
+          return new Matrix(outMM, rows, targetDimension, matrx.getIndex(), false);
+        }
+
+        calculateMM(preXM.getData(), targetDimension, globalCols,
+            weights(tuple, simpleWeights, sammon), transform, tuple.f1,
+            matrx.getData(), outMM, matrx.getRows(), matrx.getStartIndex(), threadCount);
+        Matrix out = new Matrix(outMM, rows, targetDimension, matrx.getIndex(), false);
         //System.out.println("out partial matrix with index=" + out.getIndex() + " size: " + out.getRows());
         return out;
       }
-    }).withBroadcastSet(A, "prex").withParameters(parameters).reduceGroup(new RichGroupReduceFunction<Matrix, Matrix>() {
+    }).returns(MatrixTypes.MATRIX).withBroadcastSet(A, "prex").withParameters(parameters);
+    return product(out, parameters);
+  }
+
+  private static DataSet<Matrix> calculateMMBC(DataSet<Matrix> A,
+                                               DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray, Configuration parameters) {
+    DataSet<Matrix> out = vArray.map(new RichMapFunction<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>, Matrix>() {
       int targetDimension;
       int globalCols;
+      double[] simpleWeights;
+      boolean sammon;
+      DistanceTransform transform;
+      int threadCount;
+
       @Override
       public void open(Configuration parameters) throws Exception {
         super.open(parameters);
         this.targetDimension = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
         this.globalCols = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+        this.simpleWeights = Weights.loadSimpleWeights(parameters);
+        this.sammon = parameters.getBoolean(Constants.SAMMON, false);
+        this.transform = DistanceTransform.of(parameters);
+        this.threadCount = parameters.getInteger(Constants.THREAD_COUNT, 1);
       }
 
       @Override
-      public void reduce(Iterable<Matrix> iterable, Collector<Matrix> collector) throws Exception {
-        Map<Integer, Matrix> tempMap = new HashMap<>();
-        // gather the reduce
-        int rows = 0;
-        int cols = 0;
-        List<Integer> indexes = new ArrayList<Integer>();
-        for (Matrix t : iterable) {
-          tempMap.put(t.getIndex(), t);
-          rows += t.getRows();
-          cols = t.getCols();
-          indexes.add(t.getIndex());
-        }
-
-        if (rows !=  globalCols) {
-          throw new RuntimeException("Failed to gather row != globalCols, rows=" + rows + " globalCols=" + globalCols);
+      public Matrix map(Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
+        //System.out.println("Matrix multiply ***************************************");
+        List<Matrix> direction = getRuntimeContext().getBroadcastVariable("p");
+        Matrix preXM = direction.get(0);
+        Matrix matrx = tuple.f0;
+        int rows = outputRows(tuple);
+        if (preXM.getState().breakLoop) {
+          // the loop has converged, the result is not used
+          return new Matrix(new double[rows * targetDimension],
+              rows, targetDimension, matrx.getIndex(), false);
         }
+        double[] outMM = new double[rows * targetDimension];
 
-        int cellCount = 0;
-        double[] vals = new double[rows * cols];
-        for (int j = 0; j < tempMap.size(); j++) {
-          Matrix t = tempMap.get(j);
-          if (t == null) {
-            throw new RuntimeException("Missing matrix part: " + j);
-          }
-          //System.out.printf("copy vals.size=%d rowCount=%d f1.length=%d\n", rows, cellCount, t.getData().length);
-          System.arraycopy(t.getData(), 0, vals, cellCount, t.getData().length);
-          cellCount += t.getData().length;
-        }
-        Matrix retMatrix = new Matrix(vals, rows, cols, false);
-        collector.collect(retMatrix);
+        calculateMM(preXM.getData(), targetDimension, globalCols,
+            weights(tuple, simpleWeights, sammon), transform, tuple.f1,
+            matrx.getData(), outMM, matrx.getRows(), matrx.getStartIndex(), threadCount);
+        return new Matrix(outMM, rows, targetDimension, matrx.getIndex(), false);
       }
-    }).withParameters(parameters).setParallelism(1);
-    return out;
+    }).returns(MatrixTypes.MATRIX).withBroadcastSet(A, "p").withParameters(parameters);
+    return product(out, parameters);
   }
 
-  private static DataSet<Matrix> calculateMMBC(DataSet<Tuple3<Matrix, Matrix, Matrix>> A,
-                                               DataSet<Tuple2<Matrix, ShortMatrixBlock>> vArray, Configuration parameters) {
-    DataSet<Matrix> out = vArray.map(new RichMapFunction<Tuple2<Matrix, ShortMatrixBlock>, Tuple2<Integer, Matrix>>() {
-      int targetDimension;
-      int globalCols;
+  /**
+   * Combine the partial results of the matrix multiplication. The partial results of triangular
+   * blocks cover all the rows and are added up, the others are row blocks and are gathered.
+   */
+  private static DataSet<Matrix> product(DataSet<Matrix> parts, Configuration parameters) {
+    if (TriangularMatrix.isTriangular(parameters)) {
+      return TriangularMatrix.sum(parts, parameters);
+    }
+    return gather(parts, parameters);
+  }
 
-      @Override
-      public void open(Configuration parameters) throws Exception {
-        super.open(parameters);
-        this.targetDimension = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
-        this.globalCols = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+  /**
+   * Gather the row blocks of the matrix multiplication in to a single matrix. The cg loop state is
+   * a single record, so the gathered matrix is built by one task and broadcast from there.
+   */
+  private static DataSet<Matrix> gather(DataSet<Matrix> parts, Configuration parameters) {
+    return parts.reduceGroup(new Gather()).returns(MatrixTypes.MATRIX).withParameters(parameters)
+        .setParallelism(1);
+  }
+
+  /**
+   * Copy the row blocks to a single matrix ordered by the block index
+   */
+  private static class Gather extends RichGroupReduceFunction<Matrix, Matrix> {
+    int globalCols;
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+      super.open(parameters);
+      this.globalCols = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+    }
+
+    @Override
+    public void reduce(Iterable<Matrix> iterable, Collector<Matrix> collector) throws Exception {
+      Map<Integer, Matrix> tempMap = new HashMap<>();
+      int rows = 0;
+      int cols = 0;
+      for (Matrix t : iterable) {
+        tempMap.put(t.getIndex(), t);
+        rows += t.getRows();
+        cols = t.getCols();
       }
 
-      @Override
-      public Tuple2<Integer, Matrix> map(Tuple2<Matrix, ShortMatrixBlock> tuple) throws Exception {
-        //System.out.println("Matrix multiply ***************************************");
-        List<Tuple3<Matrix, Matrix, Matrix>> prex = getRuntimeContext().getBroadcastVariable("cgloop");
-        Matrix preXM = prex.get(0).f1;
-        Matrix matrx = tuple.f0;
-        ShortMatrixBlock weightBlock = tuple.f1;
-        WeightsWrap1D weightsWrap1D = new WeightsWrap1D(weightBlock.getData(), null, false, globalCols);
-        double[] outMM = new double[matrx.getRows() * targetDimension];
-
-        // todo figure out the details of the calculation
-        calculateMMInternal(preXM.getData(), targetDimension, globalCols, weightsWrap1D, 32, matrx.getData(),
-            outMM, matrx.getRows(), matrx.getStartIndex());
-        Matrix out = new Matrix(outMM, matrx.getRows(), targetDimension, matrx.getIndex(), false);
-        return new Tuple2<Integer, Matrix>(0, out);
+      if (rows != globalCols) {
+        throw new RuntimeException("Failed to gather row != globalCols, rows=" + rows + " globalCols=" + globalCols);
       }
-    }).withBroadcastSet(A, "cgloop").withParameters(parameters).reduceGroup
-        (new RichGroupReduceFunction<Tuple2<Integer, Matrix>, Matrix>() {
-      int targetDimension;
-      int globalCols;
-      @Override
-      public void open(Configuration parameters) throws Exception {
-        super.open(parameters);
-        this.targetDimension = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
-        this.globalCols = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+
+      int cellCount = 0;
+      double[] vals = new double[rows * cols];
+      for (int j = 0; j < tempMap.size(); j++) {
+        Matrix t = tempMap.get(j);
+        if (t == null) {
+          throw new RuntimeException("Missing matrix part: " + j);
+        }
+        System.arraycopy(t.getData(), 0, vals, cellCount, t.getData().length);
+        cellCount += t.getData().length;
       }
+      collector.collect(new Matrix(vals, rows, cols, false));
+    }
+  }
+
+  /**
+   * Rows of the partial product of a block, all the rows for a triangular block
+   */
+  private static int outputRows(Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> tuple) {
+    return tuple.f1.isUpperTriangular() ? tuple.f1.getMatrixRows() : tuple.f0.getRows();
+  }
 
+  private static Weights weights(Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> tuple,
+                                 double[] simpleWeights, boolean sammon) {
+    Weights weights = new Weights(tuple.f2, simpleWeights);
+    if (sammon) {
+      weights.useSammonWeights(tuple.f0.getState().avgDist);
+    }
+    return weights;
+  }
+
+  /**
+   * Split the rows of the block across the threads, each thread writes its own rows of the output.
+   */
+  private static void calculateMM(
+      final double[] x, final int targetDimension, final int numPoints, final Weights weights,
+      final DistanceTransform transform, final ShortMatrixBlock distances, final double[] vArray, final double[] outMM,
+      int rowCount, final int rowStartOffset, int threadCount) {
+    final double[] missingSum = distances.isSparse() && !weights.isMatrix()
+        ? missingSum(x, targetDimension, numPoints, weights) : null;
+    if (distances.isUpperTriangular()) {
+      final double[][] threadMM = TriangularMatrix.threadPartials(outMM, threadCount);
+      ParallelOps.parallelFor(threadCount, rowCount, new ParallelOps.RowRangeTask() {
+        @Override
+        public void run(int thread, int startRow, int endRow) {
+          calculateTriangularMMInternal(x, targetDimension, weights, transform, distances, vArray,
+              missingSum, threadMM[thread], startRow, endRow, rowStartOffset);
+        }
+      });
+      TriangularMatrix.sumThreads(threadMM);
+      return;
+    }
+    ParallelOps.parallelFor(threadCount, rowCount, new ParallelOps.RowRangeTask() {
       @Override
-      public void reduce(Iterable<Tuple2<Integer, Matrix>> iterable, Collector<Matrix> collector) throws Exception {
-        Map<Integer, Tuple2<Integer, Matrix>> tempMap = new HashMap<>();
-        // gather the reduce
-        int rows = 0;
-        int cols = 0;
-        List<Integer> indexes = new ArrayList<Integer>();
-        for (Tuple2<Integer, Matrix> t : iterable) {
-          tempMap.put(t.f1.getIndex(), t);
-          rows += t.f1.getRows();
-          cols = t.f1.getCols();
-          indexes.add(t.f1.getIndex());
+      public void run(int thread, int startRow, int endRow) {
+        if (distances.isSparse()) {
+          calculateSparseMMInternal(x, targetDimension, weights, transform, distances, vArray, missingSum,
+              outMM, startRow, endRow, rowStartOffset);
+          return;
         }
+        calculateMMInternal(x, targetDimension, numPoints, weights, transform, distances.getData(), vArray, outMM,
+            startRow, endRow, rowStartOffset);
+      }
+    });
+  }
 
-        if (rows !=  globalCols) {
-          throw new RuntimeException("Failed to gather row != globalCols, rows=" + rows + " globalCols=" + globalCols);
+  /**
+   * Multiply the rows [startRow, endRow) of V given by this block with x. The off diagonal elements
+   * of V are -w_ij and the diagonal is the vArray. The distances are only used for the Sammon weights.
+   */
+  private static void calculateMMInternal(
+      double[] x, int targetDimension, int numPoints, Weights weights, DistanceTransform transform,
+      short[] distances, double[] vArray, double[] outMM, int startRow, int endRow, int rowStartOffset) {
+    double aVal;
+    int globalRow, outOffset, xOffset;
+    boolean sammon = weights.isSammon();
+    for (int i = startRow; i < endRow; ++i) {
+      globalRow = i + rowStartOffset;
+      outOffset = i * targetDimension;
+      for (int k = 0; k < numPoints; ++k) {
+        if (k == globalRow) {
+          aVal = vArray[i];
+        } else if (sammon) {
+          aVal = -weights.getWeight(i, k, transform.getDistance(distances[i * numPoints + k]));
+        } else {
+          aVal = -weights.getWeight(i, k);
+        }
+        if (aVal == 0) {
+          continue;
         }
+        xOffset = k * targetDimension;
+        for (int j = 0; j < targetDimension; ++j) {
+          outMM[outOffset + j] += aVal * x[xOffset + j];
+        }
+      }
+    }
+  }
 
-        int cellCount = 0;
-        double[] vals = new double[rows * cols];
-        for (int j = 0; j < tempMap.size(); j++) {
-          Tuple2<Integer, Matrix> t = tempMap.get(j);
-          if (t == null) {
-            throw new RuntimeException("Missing matrix part: " + j);
-          }
-          //System.out.printf("copy vals.size=%d rowCount=%d f1.length=%d\n", rows, cellCount, t.f1.getData().length);
-          System.arraycopy(t.f1.getData(), 0, vals, cellCount, t.f1.getData().length);
-          cellCount += t.f1.getData().length;
+  /**
+   * Sum of w_k * x_k over all the points, where w_k is the point weight. Without a weight matrix
+   * the pairs that are not stored in a sparse block still have the element -w_i * w_k of the dense
+   * V, the sum gives all of them for a row at once, see {@link #addMissing}.
+   */
+  private static double[] missingSum(double[] x, int targetDimension, int numPoints, Weights weights) {
+    double[] sum = new double[targetDimension];
+    for (int k = 0; k < numPoints; ++k) {
+      double w = weights.getPointWeight(k);
+      for (int j = 0; j < targetDimension; ++j) {
+        sum[j] += w * x[k * targetDimension + j];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Add the elements of the row that V has for the pairs with a missing distance, taking every
+   * off diagonal pair of the row as missing. The stored entries are corrected by
+   * {@link #storedElement}.
+   */
+  private static void addMissing(double[] x, int targetDimension, Weights weights, double[] missingSum,
+                                 double[] outMM, int outOffset, int globalRow) {
+    double rowWeight = weights.getPointWeight(globalRow);
+    double scale = -rowWeight * weights.getMissingFactor();
+    int xOffset = globalRow * targetDimension;
+    for (int j = 0; j < targetDimension; ++j) {
+      outMM[outOffset + j] += scale * (missingSum[j] - rowWeight * x[xOffset + j]);
+    }
+  }
+
+  /**
+   * Off diagonal element of V for a stored entry, as in the dense V. If the missing pairs were added
+   * by {@link #addMissing} the element they added for the entry is taken out.
+   */
+  private static double storedElement(Weights weights, DistanceTransform transform, short distance, int entry,
+                                      int localRow, int globalRow, int globalCol, boolean missingAdded) {
+    double aVal = weights.isSammon()
+        ? -weights.getWeightAt(entry, localRow, globalCol, transform.getDistance(distance))
+        : -weights.getWeightAt(entry, localRow, globalCol);
+    if (missingAdded) {
+      aVal += weights.getPointWeight(globalRow) * weights.getPointWeight(globalCol) * weights.getMissingFactor();
+    }
+    return aVal;
+  }
+
+  /**
+   * Multiply the rows [startRow, endRow) of V given by a sparse block with x. The elements are the
+   * ones of the dense V. With a weight matrix the entries with a missing distance and a non zero
+   * weight are stored, the others have a zero element. Without a weight matrix every missing pair
+   * has an element, they are added from missingSum.
+   */
+  private static void calculateSparseMMInternal(
+      double[] x, int targetDimension, Weights weights, DistanceTransform transform, ShortMatrixBlock block,
+      double[] vArray, double[] missingSum, double[] outMM, int startRow, int endRow, int rowStartOffset) {
+    short[] distances = block.getData();
+    int[] rowOffsets = block.getRowOffsets();
+    int[] columns = block.getColumns();
+    boolean missingAdded = missingSum != null;
+    double aVal;
+    int globalRow, globalCol, outOffset, xOffset;
+    for (int i = startRow; i < endRow; ++i) {
+      globalRow = i + rowStartOffset;
+      outOffset = i * targetDimension;
+      xOffset = globalRow * targetDimension;
+      for (int j = 0; j < targetDimension; ++j) {
+        outMM[outOffset + j] += vArray[i] * x[xOffset + j];
+      }
+      if (missingAdded) {
+        addMissing(x, targetDimension, weights, missingSum, outMM, outOffset, globalRow);
+      }
+      for (int e = rowOffsets[i]; e < rowOffsets[i + 1]; ++e) {
+        globalCol = columns[e];
+        if (globalCol == globalRow) {
+          continue;
+        }
+        aVal = storedElement(weights, transform, distances[e], e, i, globalRow, globalCol, missingAdded);
+        if (aVal == 0) {
+          continue;
+        }
+        xOffset = globalCol * targetDimension;
+        for (int j = 0; j < targetDimension; ++j) {
+          outMM[outOffset + j] += aVal * x[xOffset + j];
         }
-        Matrix retMatrix = new Matrix(vals, rows, cols, false);
-        collector.collect(retMatrix);
       }
-    }).withParameters(parameters);
-    return out;
+    }
   }
 
-  private static void calculateMMInternal(
-      double[] x, int targetDimension, int numPoints,
-      WeightsWrap1D weights, int blockSize, double[] vArray, double[] outMM, int rowCount, int rowStartOffset) {
-
-    MatrixUtils
-        .matrixMultiplyWithThreadOffset(weights, vArray, x,
-            rowCount, targetDimension,
-            numPoints, blockSize,
-            0,
-            rowStartOffset, outMM);
+  /**
+   * Multiply the rows [startRow, endRow) of V given by a triangular block, and their mirrors, with x.
+   * outMM is indexed by the global row. The elements are taken as in the full matrix, the missing
+   * pairs of a sparse block are added as in {@link #calculateSparseMMInternal}, for the whole row.
+   */
+  private static void calculateTriangularMMInternal(
+      double[] x, int targetDimension, Weights weights, DistanceTransform transform, ShortMatrixBlock block,
+      double[] vArray, double[] missingSum, double[] outMM, int startRow, int endRow, int rowStartOffset) {
+    short[] distances = block.getData();
+    int[] columns = block.getColumns();
+    boolean missingAdded = missingSum != null;
+    double aVal;
+    int globalRow, globalCol, rowEntry, rowEnd, firstColumn, rowOffset, colOffset;
+    for (int i = startRow; i < endRow; ++i) {
+      globalRow = i + rowStartOffset;
+      rowOffset = globalRow * targetDimension;
+      for (int j = 0; j < targetDimension; ++j) {
+        outMM[rowOffset + j] += vArray[i] * x[rowOffset + j];
+      }
+      if (missingAdded) {
+        addMissing(x, targetDimension, weights, missingSum, outMM, rowOffset, globalRow);
+      }
+      rowEntry = block.getRowEntry(i);
+      rowEnd = block.getRowEntry(i + 1);
+      firstColumn = block.getFirstColumn(i);
+      for (int e = rowEntry; e < rowEnd; ++e) {
+        globalCol = columns != null ? columns[e] : firstColumn + e - rowEntry;
+        if (globalCol == globalRow) {
+          continue;
+        }
+        aVal = storedElement(weights, transform, distances[e], e, i, globalRow, globalCol, missingAdded);
+        if (aVal == 0) {
+          continue;
+        }
+        colOffset = globalCol * targetDimension;
+        for (int j = 0; j < targetDimension; ++j) {
+          outMM[rowOffset + j] += aVal * x[colOffset + j];
+          outMM[colOffset + j] += aVal * x[rowOffset + j];
+        }
+      }
+    }
   }
 }
@@ -9,8 +9,24 @@ public class Constants {
   public static final String GLOBAL_ROWS = "globalRows";
   public static final String ALPHA = "alpha";
   public static final String THRESHOLD = "threshold";
+  public static final String MAX_STRESS_LOOPS = "maxStressLoops";
+  public static final String MAX_TEMP_LOOPS = "maxTempLoops";
   public static final String WEIGHT_FILE = "weightFile";
+  public static final String DISTANCE_FILE = "distanceFile";
+  public static final String CACHE_BLOCKS = "cacheBlocks";
+  public static final String SIMPLE_WEIGHTS = "simpleWeights";
+  public static final String SAMMON = "sammon";
+  public static final String DISTANCE_TRANSFORM = "distanceTransform";
+  public static final String TRANSFORMATION_FUNCTION = "transformationFunction";
+  public static final String THREAD_COUNT = "threadCount";
   public static final String BIG_INDIAN = "bigIndian";
+  public static final String NODE_AGGREGATION = "nodeAggregation";
+  public static final String NODE_AGGREGATION_SIZE = "nodeAggregationSize";
+  public static final String JACOBI_PRECONDITIONER = "jacobiPreconditioner";
+  public static final String TRIANGULAR_MATRIX = "triangularMatrix";
+  public static final String SPARSE_DISTANCES = "sparseDistances";
+  public static final String BYTE_DISTANCES = "byteDistances";
+  public static final String RUN_ID = "runId";
 
   static final String PROGRAM_NAME = "DAMDS";
 
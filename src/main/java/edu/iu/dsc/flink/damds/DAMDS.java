@@ -8,6 +8,7 @@ import edu.iu.dsc.flink.damds.types.LoopTiming;
 import edu.iu.dsc.flink.damds.types.StressTiming;
 import edu.iu.dsc.flink.damds.types.TotalTiming;
 import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
 import edu.iu.dsc.flink.mm.ShortMatrixBlock;
 
 import org.apache.flink.api.common.functions.RichMapFunction;
@@ -15,6 +16,7 @@ import org.apache.flink.api.common.functions.RichReduceFunction;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.ExecutionEnvironment;
 import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.configuration.Configuration;
 import org.apache.flink.core.fs.FileSystem;
 
@@ -24,7 +26,7 @@ import java.io.Serializable;
 import java.util.List;
 
 public class DAMDS implements Serializable {
-  private DataLoader loader;
+  protected DataLoader loader;
 
   public DAMDSSection config;
 
@@ -36,83 +38,65 @@ public class DAMDS implements Serializable {
     this.loader = new DataLoader(env, config);
   }
 
-  public void setupInitStressIteration(Iteration iteration, Configuration parameters, String initialPointFile) {
+  /**
+   * Setup a stress iteration job
+   * @param initialPointFile the text initial points, or null to read the binary points written
+   *                         by the previous iteration
+   */
+  public void setupStressIteration(Iteration iteration, DoubleStatistics statistics,
+                                   Configuration parameters, String initialPointFile) {
     //File f = new File("varray");
     //f.delete();
     DataSet<Iteration> iterationDataSet = env.fromElements(iteration);
-    // read the distances partitioned
-    DataSet<ShortMatrixBlock> distances = loader.loadMatrixBlock();
-    DataSet<ShortMatrixBlock> weights = loader.loadWeightBlock();
-
-    // DataSet<Integer> cgCount = cgCount(distances);
-    //cgCount.writeAsText("distance_count", FileSystem.WriteMode.OVERWRITE);
-    // cgCount = cgCount(weights);
-    //cgCount.writeAsText("weight_count", FileSystem.WriteMode.OVERWRITE);
-    // read the distance statistics
-    DataSet<DoubleStatistics> stats = Statistics.calculateStatistics(distances);
-    distances = Distances.updateDistances(distances, stats);
-    // now load the points
-    DataSet<Matrix> prex = loader.loadInitPointDataSetFromEnv(initialPointFile);
-    DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights = Distances.filReadJoin(distances, parameters);
-    //vArray.writeAsText("varray", FileSystem.WriteMode.OVERWRITE);
-    // add tcur and tmax to matrix
-    prex = joinStats(prex, stats, iterationDataSet);
-
-    // calculate the initial stress
-    DataSet<Double> preStress = Stress.calculate(distanceWeights, prex);
-    iterationDataSet = updatePreStressIteration(iterationDataSet, preStress);
-    // write the iteration
-    iterationDataSet.writeAsText(config.outFolder + "/" + config.iterationFile, FileSystem.WriteMode.OVERWRITE);
-  }
-
-  public void setupStressIteration(Iteration iteration, Configuration parameters, String initialPointFile) {
-    //File f = new File("varray");
-    //f.delete();
-    DataSet<Iteration> iterationDataSet = env.fromElements(iteration);
-    // read the distances partitioned
-    DataSet<ShortMatrixBlock> distances = loader.loadMatrixBlock();
-    DataSet<ShortMatrixBlock> weights = loader.loadWeightBlock();
+    // the statistics are calculated once per run
+    DataSet<DoubleStatistics> stats = env.fromElements(statistics);
+    // read the distances and weights partitioned, zero distances are changed to the positive min while reading
+    DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights =
+        loader.loadDistanceWeightBlock(statistics.getPositiveMin());
 
    // DataSet<Integer> cgCount = cgCount(distances);
     //cgCount.writeAsText("distance_count", FileSystem.WriteMode.OVERWRITE);
    // cgCount = cgCount(weights);
     //cgCount.writeAsText("weight_count", FileSystem.WriteMode.OVERWRITE);
-    // read the distance statistics
-    DataSet<DoubleStatistics> stats = Statistics.calculateStatistics(distances);
-    distances = Distances.updateDistances(distances, stats);
     // now load the points
-    DataSet<Matrix> prex = loader.loadInitPointDataSetFromEnv(initialPointFile);
-    DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights = Distances.filReadJoin(distances, parameters);
+    DataSet<Matrix> prex = initialPointFile != null ? loader.loadInitPointDataSetFromEnv(initialPointFile)
+        : loader.loadBinaryPointDataSet(loader.getBinaryPointsFile(), parameters);
     // generate vArray
-    DataSet<Tuple2<Matrix, ShortMatrixBlock>> vArray = VArray.generateVArray(distanceWeights, parameters);
+    DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray = VArray.generateVArray(distanceWeights, stats, parameters);
     //vArray.writeAsText("varray", FileSystem.WriteMode.OVERWRITE);
     // add tcur and tmax to matrix
     prex = joinStats(prex, stats, iterationDataSet);
 
-    // calculate the initial stress
-    // DataSet<Double> preStress = Stress.calculate(distances, prex);
-    DataSet<Matrix> bc = BC.calculate(prex, distanceWeights);
+    // the stress of prex is calculated along with bc
+    DataSet<Matrix> bc = BC.calculate(prex, distanceWeights, parameters);
+    iterationDataSet = updatePreStressIteration(iterationDataSet, BC.stress(bc));
     //bc.writeAsText("bc1.txt", FileSystem.WriteMode.OVERWRITE);
     DataSet<Matrix> newPrex = CG.calculateConjugateGradient(prex, bc, vArray, parameters, config.cgIter);
     // now calculate stressd
-    DataSet<Double> postStress = Stress.calculate(distanceWeights, newPrex);
+    DataSet<Double> postStress = Stress.calculate(distanceWeights, newPrex, parameters);
     DataSet<Integer> cgCount = getCGCount(newPrex);
     iterationDataSet = updatePostStressIteration(iterationDataSet, postStress, cgCount);
     // write the iteration
     iterationDataSet.writeAsText(config.outFolder + "/" + config.iterationFile, FileSystem.WriteMode.OVERWRITE);
-    // save the iteration
-    newPrex.writeAsText(config.pointsFile, FileSystem.WriteMode.OVERWRITE).setParallelism(1);
+    // save the points for the next iteration, the row blocks are written in parallel by the
+    // tasks holding the distance blocks. the text points are exported at the end
+    loader.writeBinaryPointBlocks(Points.partition(newPrex, distanceWeights), loader.getBinaryPointsFile());
+  }
+
+  /**
+   * Export the binary points of the last iteration to the text points file
+   */
+  public void exportPoints(Configuration parameters) throws Exception {
+    loader.loadBinaryPointDataSet(loader.getBinaryPointsFile(), parameters)
+        .writeAsText(config.pointsFile, FileSystem.WriteMode.OVERWRITE).setParallelism(1);
+    env.execute();
   }
 
   public DataSet<Integer> getCGCount(DataSet<Matrix> prex) {
     DataSet<Integer> count = prex.map(new RichMapFunction<Matrix, Integer>() {
       @Override
       public Integer map(Matrix matrix) throws Exception {
-        int count = 0;
-        if (matrix.getProperties().get("cgItr") != null) {
-          count = (int) matrix.getProperties().get("cgItr");
-        }
-        return count;
+        return matrix.getState().cgItr;
       }
     });
     return count;
@@ -122,7 +106,11 @@ public class DAMDS implements Serializable {
     // read the distances partitioned
     DataSet<ShortMatrixBlock> distances = loader.loadMatrixBlock();
     // read the distance statistics
-    DataSet<DoubleStatistics> stats = Statistics.calculateStatistics(distances);
+    DataSet<DoubleStatistics> stats = Statistics.calculateStatistics(distances, parameters);
+    return initialTemperature(stats, parameters);
+  }
+
+  public static DataSet<Iteration> initialTemperature(DataSet<DoubleStatistics> stats, Configuration parameters) {
     DataSet<Iteration> update = stats.map(new RichMapFunction<DoubleStatistics, Iteration>() {
       int targetDimension;
       double tMinFactor;
@@ -156,30 +144,18 @@ public class DAMDS implements Serializable {
     long startTime = System.currentTimeMillis();
     TotalTiming totalTiming = new TotalTiming();
     totalTiming.start();
+    // calculate the distance statistics once, all the stress iterations use them
+    DoubleStatistics statistics = Statistics.calculateStatistics(loader.loadMatrixBlock(), parameters).collect().get(0);
     // first load the intial temperaturs etc
-    DataSet<Iteration> initialIteration = loadInitialTemperature(parameters);
-    initialIteration.writeAsText(config.outFolder + "/" + config.iterationFile,
-        FileSystem.WriteMode.OVERWRITE).setParallelism(1);
-    env.execute();
-    // now lets load the initial iteration from file system
-    Iteration iteration = loader.loadIteration();
+    Iteration iteration = initialTemperature(env.fromElements(statistics), parameters).collect().get(0);
     boolean initLoaded = false;
     String initFile;
     // first lets read the last iteration results from file system
     while (true) {
       LoopTiming loopTiming = new LoopTiming(iteration.tItr);
       loopTiming.start();
-      if (!initLoaded) {
-        initFile = config.initialPointsFile;
-      } else {
-        initFile= config.pointsFile;
-      }
-
-      // calculate the initial stress for this stress iteration
-      setupInitStressIteration(iteration, parameters, initFile);
-      env.execute();
-      iteration = loader.loadIteration();
 
+      // the stress at the start of a stress iteration is calculated by the iteration itself
       double diffStress = config.threshold + 1;
       int stressIterations = 0;
       int cgCount = 0;
@@ -193,15 +169,14 @@ public class DAMDS implements Serializable {
           initFile = config.initialPointsFile;
           initLoaded = true;
         } else {
-          initFile= config.pointsFile;
+          initFile = null;
         }
         // first we load from initial point file. then we use the previous iterations output
-        setupStressIteration(iteration, parameters, initFile);
+        setupStressIteration(iteration, statistics, parameters, initFile);
         env.execute();
         iteration = loader.loadIteration();
         iteration.stressItr++;
         diffStress = iteration.preStress - iteration.stress;
-        iteration.preStress = iteration.stress;
         System.out.printf("Loop %d iteration %d cg count %d stress %f\n", iteration.tItr, stressIterations, iteration.cgCount ,iteration.stress);
         stressIterations++;
         cgCount += iteration.cgCount;
@@ -244,6 +219,7 @@ public class DAMDS implements Serializable {
 //      }
     }
     totalTiming.end();
+    exportPoints(parameters);
     long endTime = System.currentTimeMillis();
     long l = endTime - startTime;
     // print the final details
@@ -304,42 +280,6 @@ public class DAMDS implements Serializable {
     return update;
   }
 
-  public DataSet<Iteration> updateIteration(DataSet<Iteration> itr, DataSet<Double> preStress,
-                                            DataSet<Double> postStress) {
-    DataSet<Iteration> update = itr.map(new RichMapFunction<Iteration, Iteration>() {
-      @Override
-      public Iteration map(Iteration iteration) throws Exception {
-        List<Double> preStressList = getRuntimeContext().getBroadcastVariable("preStress");
-        List<Double> postStressList = getRuntimeContext().getBroadcastVariable("postStress");
-
-        iteration.preStress = preStressList.get(0);
-        iteration.stress = postStressList.get(0);
-        return iteration;
-      }
-    }).withBroadcastSet(preStress, "preStress").withBroadcastSet(postStress, "postStress");
-    return update;
-  }
-
-  public DataSet<Boolean> stressDiff(DataSet<Double> preStree, DataSet<Double> postStress, Configuration parameters) {
-    DataSet<Boolean> thresh = preStree.map(new RichMapFunction<Double, Boolean>() {
-      double threshold;
-      @Override
-      public void open(Configuration parameters) throws Exception {
-        super.open(parameters);
-        threshold = parameters.getDouble(Constants.THRESHOLD, 0.000001);
-      }
-
-      @Override
-      public Boolean map(Double aDouble) throws Exception {
-        List<Double> postStressList = getRuntimeContext().getBroadcastVariable("stat");
-        double post = postStressList.get(0);
-        double diffStress = aDouble - post;
-        return diffStress >= threshold;
-      }
-    }).withBroadcastSet(postStress, "stat").withParameters(parameters);
-    return thresh;
-  }
-
   public DataSet<Matrix> joinStats(DataSet<Matrix> prex, DataSet<DoubleStatistics> statisticsDataSet,
                                    DataSet<Iteration> iteration) {
     DataSet<Matrix> matrixDataSet = prex.map(new RichMapFunction<Matrix, Matrix>() {
@@ -349,31 +289,15 @@ public class DAMDS implements Serializable {
         List<Iteration> iterationList = getRuntimeContext().getBroadcastVariable("itr");
         DoubleStatistics stat = statList.get(0);
         Iteration itr = iterationList.get(0);
-        matrix.getProperties().put("invs", 1.0 / stat.getSumOfSquare());
-        matrix.getProperties().put("tCur", itr.tCur);
+        matrix.getState().invs = 1.0 / stat.getSumOfSquare();
+        matrix.getState().tCur = itr.tCur;
+        matrix.getState().avgDist = stat.getAverage();
         return matrix;
       }
-    }).withBroadcastSet(statisticsDataSet, "stat").withBroadcastSet(iteration, "itr");
+    }).returns(MatrixTypes.MATRIX).withBroadcastSet(statisticsDataSet, "stat").withBroadcastSet(iteration, "itr");
     return matrixDataSet;
   }
 
-  public DataSet<Double> createTCur(DataSet<DoubleStatistics> statisticsDataSet, Configuration parameters) {
-    DataSet<Double> tCur = statisticsDataSet.map(new RichMapFunction<DoubleStatistics, Double>() {
-      int targetDimension;
-      @Override
-      public void open(Configuration parameters) throws Exception {
-        super.open(parameters);
-        this.targetDimension = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
-      }
-
-      @Override
-      public Double map(DoubleStatistics stat) throws Exception {
-        return .95 * stat.getMax() / Math.sqrt(2.0 * targetDimension);
-      }
-    });
-    return tCur;
-  }
-
   public DataSet<Integer> count(DataSet<ShortMatrixBlock> distances) {
     DataSet<Integer> count = distances.map(new RichMapFunction<ShortMatrixBlock, Integer>() {
       @Override
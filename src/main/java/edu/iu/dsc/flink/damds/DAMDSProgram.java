@@ -32,7 +32,7 @@ public class DAMDSProgram {
     DAMDSSection config = readConfiguration(cmd);
     final ExecutionEnvironment env = ExecutionEnvironment.getExecutionEnvironment();
 
-    DAMDS damds = new DAMDS(config, env);
+    DAMDS damds = config.singleJob ? new DAMDSSingleJob(config, env) : new DAMDS(config, env);
     damds.execute();
   }
 
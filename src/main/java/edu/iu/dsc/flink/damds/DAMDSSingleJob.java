@@ -0,0 +1,314 @@
+package edu.iu.dsc.flink.damds;
+
+import edu.indiana.soic.spidal.common.DoubleStatistics;
+import edu.iu.dsc.flink.damds.configuration.ConfigurationMgr;
+import edu.iu.dsc.flink.damds.configuration.section.DAMDSSection;
+import edu.iu.dsc.flink.damds.types.Iteration;
+import edu.iu.dsc.flink.damds.types.TotalTiming;
+import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
+import edu.iu.dsc.flink.mm.ShortMatrixBlock;
+import org.apache.flink.api.common.functions.FilterFunction;
+import org.apache.flink.api.common.functions.MapFunction;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.operators.IterativeDataSet;
+import org.apache.flink.api.java.operators.MapOperator;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+import org.apache.flink.api.java.typeutils.TypeExtractor;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.core.fs.FileSystem;
+
+import java.util.List;
+
+/**
+ * Runs the complete annealing and SMACOF loop as a single Flink job. Every superstep of the bulk
+ * iteration is one stress iteration, the temperature loop is driven by the {@link Iteration} carried
+ * along with the points and the iteration terminates when the annealing is done.
+ */
+public class DAMDSSingleJob extends DAMDS {
+  // the points, the iteration and the carried products of the outer loop. The iteration is a POJO, the
+  // type is kept here instead of MatrixTypes as the mm package does not know the DAMDS types
+  private static final TypeInformation<Tuple3<Matrix, Iteration, Matrix>> LOOP_STATE =
+      new TupleTypeInfo<Tuple3<Matrix, Iteration, Matrix>>(MatrixTypes.MATRIX,
+          TypeExtractor.getForClass(Iteration.class), MatrixTypes.MATRIX);
+
+  public DAMDSSingleJob(DAMDSSection config, ExecutionEnvironment env) {
+    super(config, env);
+  }
+
+  @Override
+  public void execute() throws Exception {
+    Configuration parameters = ConfigurationMgr.getConfiguration(config);
+    long startTime = System.currentTimeMillis();
+    TotalTiming totalTiming = new TotalTiming();
+    totalTiming.start();
+
+    // read the distances and weights partitioned, these are loop invariant
+    DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights = loader.loadDistanceWeightBlock();
+    DataSet<DoubleStatistics> stats = Statistics.calculateStatistics(distanceWeights.map(
+        new MapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, ShortMatrixBlock>() {
+          @Override
+          public ShortMatrixBlock map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> t) throws Exception {
+            return t.f0;
+          }
+        }), parameters);
+    distanceWeights = Distances.updateDistanceWeights(distanceWeights, stats, parameters);
+    DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> vArray = VArray.generateVArray(distanceWeights, stats, parameters);
+
+    DataSet<Iteration> initialIteration = initialTemperature(stats, parameters);
+    DataSet<Matrix> initialPrex = loader.loadInitPointDataSetFromEnv(config.initialPointsFile);
+    DataSet<Tuple3<Matrix, Iteration, Matrix>> initial = initialPrex.map(new RichMapFunction<Matrix, Tuple3<Matrix, Iteration, Matrix>>() {
+      @Override
+      public Tuple3<Matrix, Iteration, Matrix> map(Matrix matrix) throws Exception {
+        List<Iteration> iterationList = getRuntimeContext().getBroadcastVariable("itr");
+        return new Tuple3<Matrix, Iteration, Matrix>(matrix, iterationList.get(0),
+            new Matrix(new double[0], 0, matrix.getCols(), false));
+      }
+    }).returns(LOOP_STATE).withBroadcastSet(initialIteration, "itr");
+
+    // each superstep is a stress iteration, StressIterations bounds the total number of them. The stress of
+    // a superstep is aggregated and applied to the iteration at the start of the next superstep, so the
+    // loop needs one more superstep to apply the stress of the last stress iteration.
+    IterativeDataSet<Tuple3<Matrix, Iteration, Matrix>> loop = initial.iterate(config.stressIter + 1);
+    ScalarAggregators.registerStress(loop);
+    DataSet<Tuple3<Matrix, Iteration, Matrix>> current = loop.map(new AnnealingStep()).returns(LOOP_STATE)
+        .withParameters(parameters);
+    DataSet<Matrix> prex = joinStats(current, stats);
+
+    // the stress of prex is aggregated along with bc
+    DataSet<Matrix> bc = BC.calculate(prex, distanceWeights, parameters);
+    DataSet<Matrix> newPrex;
+    DataSet<Tuple3<Matrix, Matrix, Matrix>> cg = null;
+    if (config.warmStartCG) {
+      // start cg from the points moved by the previous solution delta, with the products of V carried over
+      DataSet<Matrix> start = prex.map(new WarmStart()).returns(MatrixTypes.MATRIX).withBroadcastSet(current, "current");
+      DataSet<Matrix> products = current.map(new StartProducts()).returns(MatrixTypes.MATRIX);
+      cg = CG.conjugateGradientLoopUnrolled(start, products, bc, vArray, parameters, config.cgIter);
+      newPrex = CG.solution(cg);
+    } else {
+      newPrex = CG.calculateConjugateGradientUnrolled(prex, bc, vArray, parameters, config.cgIter);
+    }
+    DataSet<Tuple2<Integer, Double>> postStress = Stress.aggregate(distanceWeights, newPrex, parameters);
+
+    MapOperator<Tuple3<Matrix, Iteration, Matrix>, Tuple3<Matrix, Iteration, Matrix>> next = current.map(
+        new Advance(config.stressIter + 1, cg != null)).returns(LOOP_STATE).withBroadcastSet(newPrex, "prex").withBroadcastSet(postStress, "postStress");
+    if (cg != null) {
+      next = next.withBroadcastSet(cg, "cg").withBroadcastSet(bc, "bc");
+    }
+    DataSet<Tuple3<Matrix, Iteration, Matrix>> result = loop.closeWith(next, next.filter(new FilterFunction<Tuple3<Matrix, Iteration, Matrix>>() {
+      @Override
+      public boolean filter(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+        return !t.f1.done;
+      }
+    }));
+
+    result.map(new MapFunction<Tuple3<Matrix, Iteration, Matrix>, Iteration>() {
+      @Override
+      public Iteration map(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+        return t.f1;
+      }
+    }).writeAsText(config.outFolder + "/" + config.iterationFile, FileSystem.WriteMode.OVERWRITE).setParallelism(1);
+    result.map(new MapFunction<Tuple3<Matrix, Iteration, Matrix>, Matrix>() {
+      @Override
+      public Matrix map(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+        return t.f0;
+      }
+    }).returns(MatrixTypes.MATRIX).writeAsText(config.pointsFile, FileSystem.WriteMode.OVERWRITE).setParallelism(1);
+    env.execute();
+
+    Iteration iteration = loader.loadIteration();
+    totalTiming.end();
+    long l = System.currentTimeMillis() - startTime;
+    printFinalIteration(iteration, l);
+    writeFile(totalTiming.serialize(), config.outFolder + "/timing.txt");
+    System.out.println("Time: " + l);
+  }
+
+  public DataSet<Matrix> joinStats(DataSet<Tuple3<Matrix, Iteration, Matrix>> loop, DataSet<DoubleStatistics> statisticsDataSet) {
+    return loop.map(new RichMapFunction<Tuple3<Matrix, Iteration, Matrix>, Matrix>() {
+      @Override
+      public Matrix map(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+        List<DoubleStatistics> statList = getRuntimeContext().getBroadcastVariable("stat");
+        DoubleStatistics stat = statList.get(0);
+        Matrix matrix = t.f0;
+        matrix.getState().invs = 1.0 / stat.getSumOfSquare();
+        matrix.getState().tCur = t.f1.tCur;
+        matrix.getState().avgDist = stat.getAverage();
+        return matrix;
+      }
+    }).returns(MatrixTypes.MATRIX).withBroadcastSet(statisticsDataSet, "stat");
+  }
+
+  /**
+   * Updates the iteration with the stress values aggregated in the previous superstep and moves the
+   * annealing to the next temperature once the stress iterations at the current temperature are done.
+   * This follows the loop conditions of {@link DAMDS#execute()}.
+   */
+  private static class AnnealingStep extends RichMapFunction<Tuple3<Matrix, Iteration, Matrix>, Tuple3<Matrix, Iteration, Matrix>> {
+    double threshold;
+    double alpha;
+    int maxStressLoops;
+    int maxTempLoops;
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+      super.open(parameters);
+      threshold = parameters.getDouble(Constants.THRESHOLD, 0.000001);
+      alpha = parameters.getDouble(Constants.ALPHA, .95);
+      maxStressLoops = parameters.getInteger(Constants.MAX_STRESS_LOOPS, 0);
+      maxTempLoops = parameters.getInteger(Constants.MAX_TEMP_LOOPS, 0);
+    }
+
+    @Override
+    public Tuple3<Matrix, Iteration, Matrix> map(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+      // nothing has been calculated before the first superstep
+      if (getIterationRuntimeContext().getSuperstepNumber() == 1) {
+        return t;
+      }
+      Matrix prex = t.f0;
+      Iteration iteration = t.f1;
+
+      iteration.preStress = ScalarAggregators.previous(getRuntimeContext(), ScalarAggregators.PRE_STRESS);
+      iteration.stress = ScalarAggregators.previous(getRuntimeContext(), ScalarAggregators.POST_STRESS);
+      iteration.cgCount = prex.getState().cgItr;
+      double diffStress = iteration.preStress - iteration.stress;
+      System.out.printf("Loop %d iteration %d cg count %d stress %f\n", iteration.tItr, iteration.stressLoop,
+          iteration.cgCount, iteration.stress);
+      iteration.stressItr++;
+      iteration.stressLoop++;
+
+      boolean stressLoopDone = !(diffStress >= threshold || maxStressLoops > 0)
+          || (maxStressLoops >= 0 && iteration.stressLoop == maxStressLoops);
+      if (stressLoopDone) {
+        System.out.printf("Done iteration: T iteration=%d stress itrs=%d temp=%f iteration stress= %f\n",
+            iteration.tItr, iteration.stressLoop, iteration.tCur, iteration.stress);
+        if (maxTempLoops >= 0 ? iteration.tItr == maxTempLoops : iteration.tCur == 0) {
+          iteration.done = true;
+        } else {
+          iteration.tItr++;
+          iteration.tCur *= alpha;
+          if (iteration.tCur < iteration.tMin) {
+            iteration.tCur = 0;
+          }
+          iteration.stressLoop = 0;
+        }
+      }
+      return t;
+    }
+  }
+
+  /**
+   * Whether the cg loop of the superstep starts from the products carried in the loop. The products are
+   * recalculated at the start of each temperature, so the errors of the cg updates do not add up.
+   */
+  private static boolean isWarm(Tuple3<Matrix, Iteration, Matrix> t) {
+    return t.f2.getRows() > 0 && t.f1.stressLoop > 0;
+  }
+
+  /**
+   * The start of the cg loop, x0 = preX + the solution delta of the previous stress iteration if it is known
+   */
+  private static class WarmStart extends RichMapFunction<Matrix, Matrix> {
+    @Override
+    public Matrix map(Matrix prex) throws Exception {
+      List<Tuple3<Matrix, Iteration, Matrix>> currentList = getRuntimeContext().getBroadcastVariable("current");
+      Tuple3<Matrix, Iteration, Matrix> t = currentList.get(0);
+      if (!isWarm(t)) {
+        prex.getState().warmStart = false;
+        return prex;
+      }
+      double[] x0 = prex.getData().clone();
+      if (t.f2.getRows() == 3 * prex.getRows()) {
+        double[] carried = t.f2.getData();
+        for (int i = 0; i < x0.length; i++) {
+          x0[i] += carried[x0.length + i];
+        }
+      }
+      Matrix start = new Matrix(x0, prex.getRows(), prex.getCols(), prex.getIndex(), false);
+      prex.getState().copyTo(start.getState());
+      start.getState().warmStart = true;
+      return start;
+    }
+  }
+
+  /**
+   * V x0 followed by V preX for a warm started cg loop, an empty matrix otherwise
+   */
+  private static class StartProducts implements MapFunction<Tuple3<Matrix, Iteration, Matrix>, Matrix> {
+    @Override
+    public Matrix map(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+      if (!isWarm(t)) {
+        return new Matrix(new double[0], 0, t.f0.getCols(), false);
+      }
+      double[] carried = t.f2.getData();
+      int n = t.f0.getData().length;
+      double[] products = new double[2 * n];
+      for (int i = 0; i < n; i++) {
+        products[i] = carried[i];
+        if (carried.length == 3 * n) {
+          products[i] += carried[2 * n + i];
+        }
+        products[n + i] = carried[i];
+      }
+      return new Matrix(products, 2 * t.f0.getRows(), t.f0.getCols(), false);
+    }
+  }
+
+  /**
+   * Continues the loop with the points calculated in the superstep. Once the annealing is done, or in
+   * the last superstep, the points of the previous superstep are kept, as the stress of the points
+   * calculated in the superstep is not applied to the iteration.
+   *
+   * With a warm started cg the products for the next stress iteration are carried in the loop: V x from
+   * the final residual, V x = BC - r, and if V preX was known the solution delta x - preX with V (x - preX).
+   */
+  private static class Advance extends RichMapFunction<Tuple3<Matrix, Iteration, Matrix>, Tuple3<Matrix, Iteration, Matrix>> {
+    int maxSupersteps;
+    boolean warmStart;
+
+    public Advance(int maxSupersteps, boolean warmStart) {
+      this.maxSupersteps = maxSupersteps;
+      this.warmStart = warmStart;
+    }
+
+    @Override
+    public Tuple3<Matrix, Iteration, Matrix> map(Tuple3<Matrix, Iteration, Matrix> t) throws Exception {
+      if (t.f1.done || getIterationRuntimeContext().getSuperstepNumber() == maxSupersteps) {
+        return t;
+      }
+      List<Matrix> prexList = getRuntimeContext().getBroadcastVariable("prex");
+      Matrix prex = prexList.get(0);
+      if (!warmStart) {
+        return new Tuple3<Matrix, Iteration, Matrix>(prex, t.f1, t.f2);
+      }
+
+      List<Tuple3<Matrix, Matrix, Matrix>> cgList = getRuntimeContext().getBroadcastVariable("cg");
+      List<Matrix> bcList = getRuntimeContext().getBroadcastVariable("bc");
+      double[] r = cgList.get(0).f2.getData();
+      double[] bc = bcList.get(0).getData();
+      int n = bc.length;
+      boolean known = prex.getState().warmStart;
+      double[] carried = new double[known ? 3 * n : n];
+      for (int i = 0; i < n; i++) {
+        carried[i] = bc[i] - r[i];
+      }
+      if (known) {
+        double[] x = prex.getData();
+        double[] previousX = t.f0.getData();
+        double[] previous = t.f2.getData();
+        for (int i = 0; i < n; i++) {
+          carried[n + i] = x[i] - previousX[i];
+          carried[2 * n + i] = carried[i] - previous[i];
+        }
+      }
+      prex.getState().warmStart = false;
+      return new Tuple3<Matrix, Iteration, Matrix>(prex, t.f1,
+          new Matrix(carried, carried.length / prex.getCols(), prex.getCols(), false));
+    }
+  }
+}
@@ -4,13 +4,18 @@ import com.google.common.base.Strings;
 import edu.iu.dsc.flink.damds.configuration.section.DAMDSSection;
 import edu.iu.dsc.flink.damds.types.Iteration;
 import edu.iu.dsc.flink.mm.*;
+import org.apache.flink.api.common.functions.MapFunction;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.ExecutionEnvironment;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.core.fs.FileSystem;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 import java.util.Scanner;
@@ -42,21 +47,101 @@ public class DataLoader {
   }
 
   public DataSet<ShortMatrixBlock> loadMatrixBlock() {
+    if (config.sparseFiles) {
+      // the distances of a sparse file are read by the distance weight format, without the weights
+      DistanceWeightInputFormat inputFormat = distanceWeightInputFormat();
+      inputFormat.setWeightFile(null);
+      return env.readFile(inputFormat, config.distanceMatrixFile)
+          .map(new MapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, ShortMatrixBlock>() {
+            @Override
+            public ShortMatrixBlock map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> t) throws Exception {
+              return t.f0;
+            }
+          }).returns(MatrixTypes.SHORT_MATRIX_BLOCK);
+    }
+    ShortMatrixInputFormat inputFormat = new ShortMatrixInputFormat();
+    inputFormat.setBigEndian(true);
+    inputFormat.setGlobalColumnCount(config.numberDataPoints);
+    inputFormat.setGlobalRowCount(config.numberDataPoints);
+    inputFormat.setGenerateData(config.isGenData);
+    inputFormat.setMemoryMapped(config.isMemoryMapped);
+    inputFormat.setUpperTriangular(config.triangularMatrix);
+    inputFormat.setByteEncoded(config.byteDistances);
+
+    return env.readFile(inputFormat, config.distanceMatrixFile);
+  }
+
+  /**
+   * Load the distance blocks with the zero distances changed to the positive minimum. The blocks
+   * are kept in the TaskManager cache if CacheBlocks is set.
+   * @param positiveMin positive minimum of the distances
+   */
+  public DataSet<ShortMatrixBlock> loadMatrixBlock(double positiveMin) {
     ShortMatrixInputFormat inputFormat = new ShortMatrixInputFormat();
     inputFormat.setBigEndian(true);
     inputFormat.setGlobalColumnCount(config.numberDataPoints);
     inputFormat.setGlobalRowCount(config.numberDataPoints);
     inputFormat.setGenerateData(config.isGenData);
+    inputFormat.setMemoryMapped(config.isMemoryMapped);
+    inputFormat.setUpperTriangular(config.triangularMatrix);
+    inputFormat.setByteEncoded(config.byteDistances);
+    inputFormat.setTransform(new Distances.PositiveMinTransform(positiveMin,
+        new DistanceTransform(config.distanceTransform, config.transformationFunction)));
+    inputFormat.setCached(config.cacheBlocks);
+    inputFormat.setCacheRun(config.runId);
+
+    return env.readFile(inputFormat, config.distanceMatrixFile);
+  }
+
+  /**
+   * Load the distance and weight blocks as aligned pairs, both files are read by the input format
+   */
+  public DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> loadDistanceWeightBlock() {
+    return env.readFile(distanceWeightInputFormat(), config.distanceMatrixFile);
+  }
 
+  /**
+   * Load the distance and weight blocks as aligned pairs, with the zero distances changed to the
+   * positive minimum. The blocks are kept in the TaskManager cache if CacheBlocks is set.
+   * @param positiveMin positive minimum of the distances
+   */
+  public DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> loadDistanceWeightBlock(double positiveMin) {
+    DistanceWeightInputFormat inputFormat = distanceWeightInputFormat();
+    inputFormat.setTransform(new Distances.PositiveMinTransform(positiveMin,
+        new DistanceTransform(config.distanceTransform, config.transformationFunction)));
+    inputFormat.setCached(config.cacheBlocks);
+    inputFormat.setCacheRun(config.runId);
     return env.readFile(inputFormat, config.distanceMatrixFile);
   }
 
+  private DistanceWeightInputFormat distanceWeightInputFormat() {
+    DistanceWeightInputFormat inputFormat = new DistanceWeightInputFormat();
+    inputFormat.setBigEndian(true);
+    inputFormat.setGlobalColumnCount(config.numberDataPoints);
+    inputFormat.setGlobalRowCount(config.numberDataPoints);
+    inputFormat.setGenerateData(config.isGenData);
+    inputFormat.setMemoryMapped(config.isMemoryMapped);
+    inputFormat.setUpperTriangular(config.triangularMatrix);
+    inputFormat.setByteEncoded(config.byteDistances);
+    inputFormat.setSparse(config.sparseDistances);
+    inputFormat.setSparseFile(config.sparseFiles);
+    // the weight matrix is only read when the weights are not constant or simple
+    if (!Weights.isConstant(config.weightMatrixFile) && !config.isSimpleWeights) {
+      inputFormat.setWeightFile(config.weightMatrixFile);
+      // the distances are big endian, the weights are read in the configured byte order
+      inputFormat.setWeightBigEndian(config.isBigEndian);
+    }
+    return inputFormat;
+  }
+
   public DataSet<ShortMatrixBlock> loadWeightBlock() {
     ShortMatrixInputFormat inputFormat = new ShortMatrixInputFormat();
     inputFormat.setBigEndian(true);
     inputFormat.setGlobalColumnCount(config.numberDataPoints);
     inputFormat.setGlobalRowCount(config.numberDataPoints);
     inputFormat.setGenerateData(config.isGenData);
+    inputFormat.setMemoryMapped(config.isMemoryMapped);
+    inputFormat.setUpperTriangular(config.triangularMatrix);
 
     return env.readFile(inputFormat, config.weightMatrixFile);
   }
@@ -93,7 +178,7 @@ public class DataLoader {
     for (int i = 0; i < matrixBdataSize; i++) {
       data[i] = random.nextDouble();
     }
-    return env.fromElements(matrixB);
+    return env.fromCollection(Collections.singletonList(matrixB), MatrixTypes.MATRIX);
   }
 
   public DataSet<Matrix> loadInitPointDataSetFromEnv(String pointFile) {
@@ -106,6 +191,39 @@ public class DataLoader {
     return env.readFile(inputFormat, pointFile);
   }
 
+  /**
+   * Load the row blocks of the points written by {@link #writeBinaryPointBlocks(DataSet, String)},
+   * the files are read in parallel
+   */
+  public DataSet<Matrix> loadBinaryPointBlocks(String pointFile) {
+    BinaryPointInputFormat inputFormat = new BinaryPointInputFormat();
+    inputFormat.setRows(config.numberDataPoints);
+    inputFormat.setCols(config.targetDimension);
+    inputFormat.setBigEndian(config.isBigEndian);
+    return env.readFile(inputFormat, pointFile);
+  }
+
+  /**
+   * Load the binary points gathered in to a single matrix
+   */
+  public DataSet<Matrix> loadBinaryPointDataSet(String pointFile, Configuration parameters) {
+    return Points.gather(loadBinaryPointBlocks(pointFile), parameters);
+  }
+
+  /**
+   * Write the row blocks of the points, each task writes the blocks it holds to its own file
+   */
+  public void writeBinaryPointBlocks(DataSet<Matrix> blocks, String pointFile) {
+    BinaryPointOutputFormat outputFormat = new BinaryPointOutputFormat();
+    outputFormat.setBigEndian(config.isBigEndian);
+    outputFormat.setGlobalRows(config.numberDataPoints);
+    blocks.write(outputFormat, pointFile, FileSystem.WriteMode.OVERWRITE);
+  }
+
+  public String getBinaryPointsFile() {
+    return Strings.isNullOrEmpty(config.binaryPointsFile) ? config.pointsFile + ".bin" : config.binaryPointsFile;
+  }
+
   public DataSet<Matrix> loadInitPointDataSet(String pointFile) {
     int n = config.numberDataPoints;
     int m = config.targetDimension;
@@ -133,7 +251,7 @@ public class DataLoader {
     } catch (IOException e) {
       throw new RuntimeException("Failed to read file", e);
     }
-    return env.fromElements(matrixB);
+    return env.fromCollection(Collections.singletonList(matrixB), MatrixTypes.MATRIX);
   }
 
   public DataSet<Integer> loadParallelArray(int parallel) {
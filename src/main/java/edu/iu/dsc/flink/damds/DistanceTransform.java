@@ -0,0 +1,78 @@
+package edu.iu.dsc.flink.damds;
+
+import com.google.common.base.Strings;
+import edu.indiana.soic.spidal.common.TransformationFunction;
+import org.apache.flink.configuration.Configuration;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+
+import static edu.iu.dsc.flink.damds.DAMDSUtils.INV_SHORT_MAX;
+
+/**
+ * Transformation applied to the distances when they are used by the kernels. The optional
+ * transformation function is applied first and then the distance is raised to the power given by
+ * DistanceTransform. A distance is a non negative short, so the transformed values are kept in a
+ * table and the transformation costs a lookup. Negative (missing) distances are not transformed.
+ */
+public class DistanceTransform implements Serializable {
+  private final double power;
+  private final String function;
+  // transformed distance of every non negative short value
+  private transient double[] table;
+
+  public DistanceTransform(double power, String function) {
+    this.power = power;
+    this.function = function;
+    this.table = createTable();
+  }
+
+  public static DistanceTransform of(Configuration parameters) {
+    return new DistanceTransform(parameters.getDouble(Constants.DISTANCE_TRANSFORM, 1.0),
+        parameters.getString(Constants.TRANSFORMATION_FUNCTION, null));
+  }
+
+  public boolean isIdentity() {
+    return table == null;
+  }
+
+  public String getName() {
+    return isIdentity() ? "none" : "power=" + power + ",function=" + function;
+  }
+
+  public double getDistance(short d) {
+    if (d < 0 || table == null) {
+      return d * INV_SHORT_MAX;
+    }
+    return table[d];
+  }
+
+  private double[] createTable() {
+    if (power == 1.0 && Strings.isNullOrEmpty(function)) {
+      return null;
+    }
+    TransformationFunction f = null;
+    if (!Strings.isNullOrEmpty(function)) {
+      try {
+        f = (TransformationFunction) Class.forName(function).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new RuntimeException("Failed to create the transformation function: " + function, e);
+      }
+    }
+    double[] t = new double[Short.MAX_VALUE + 1];
+    for (int i = 0; i < t.length; i++) {
+      double d = i * INV_SHORT_MAX;
+      if (f != null) {
+        d = f.transform(d);
+      }
+      t[i] = power == 1.0 ? d : Math.pow(d, power);
+    }
+    return t;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    table = createTable();
+  }
+}
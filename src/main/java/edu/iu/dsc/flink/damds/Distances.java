@@ -1,7 +1,8 @@
 package edu.iu.dsc.flink.damds;
 
-import com.google.common.io.LittleEndianDataInputStream;
 import edu.indiana.soic.spidal.common.DoubleStatistics;
+import edu.iu.dsc.flink.mm.BlockTransform;
+import edu.iu.dsc.flink.mm.MatrixTypes;
 import edu.iu.dsc.flink.mm.ShortMatrixBlock;
 import org.apache.flink.api.common.functions.JoinFunction;
 import org.apache.flink.api.common.functions.RichMapFunction;
@@ -9,38 +10,36 @@ import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.functions.KeySelector;
 import org.apache.flink.api.java.tuple.Tuple2;
 import org.apache.flink.configuration.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 
-import java.io.BufferedInputStream;
-import java.io.DataInput;
-import java.io.DataInputStream;
-import java.io.InputStreamReader;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 import java.util.List;
 
-import static edu.iu.dsc.flink.damds.DAMDSUtils.INV_SHORT_MAX;
 import static edu.iu.dsc.flink.damds.DAMDSUtils.SHORT_MAX;
 
 public class Distances {
-  public static DataSet<ShortMatrixBlock> updateDistances(DataSet<ShortMatrixBlock> distances,
-                                                          DataSet<DoubleStatistics> stats) {
-    DataSet<ShortMatrixBlock> updates = distances.map(new RichMapFunction<ShortMatrixBlock, ShortMatrixBlock>() {
+  /**
+   * Change the zero distances of the (distances, weights) pairs to the positive minimum
+   */
+  public static DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> updateDistanceWeights(
+      DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights, DataSet<DoubleStatistics> stats,
+      Configuration parameters) {
+    return distanceWeights.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>,
+        Tuple2<ShortMatrixBlock, ShortMatrixBlock>>() {
+      DistanceTransform transform;
+
       @Override
-      public ShortMatrixBlock map(ShortMatrixBlock shortMatrixBlock) throws Exception {
+      public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        transform = DistanceTransform.of(parameters);
+      }
+
+      @Override
+      public Tuple2<ShortMatrixBlock, ShortMatrixBlock> map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> t) throws Exception {
         List<DoubleStatistics> statsList = getRuntimeContext().getBroadcastVariable("stats");
         DoubleStatistics stats = statsList.get(0);
-        changeZeroDistancesToPostiveMin(shortMatrixBlock.getData(), stats.getPositiveMin());
-        //System.out.println("Update distances");
-        return shortMatrixBlock;
+        changeZeroDistancesToPostiveMin(t.f0.getData(), stats.getPositiveMin(), transform);
+        return t;
       }
-    }).withBroadcastSet(stats, "stats");
-    return updates;
+    }).returns(MatrixTypes.SHORT_MATRIX_BLOCK_PAIR).withBroadcastSet(stats, "stats").withParameters(parameters);
   }
 
   public static DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> join(DataSet<ShortMatrixBlock> distances,
@@ -68,104 +67,50 @@ public class Distances {
     return distanceWeights;
   }
 
-  public static DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> filReadJoin(DataSet<ShortMatrixBlock> distances,
-                                                                         Configuration parameters) {
-    DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights =
-        distances.map(new RichMapFunction<ShortMatrixBlock, Tuple2<ShortMatrixBlock, ShortMatrixBlock>>() {
-          String weightFile;
-          boolean isBigEndian;
-          @Override
-          public void open(Configuration parameters) throws Exception {
-            super.open(parameters);
-            this.weightFile = parameters.getString(Constants.WEIGHT_FILE, "weight.bin");
-            this.isBigEndian = parameters.getBoolean(Constants.BIG_INDIAN, true);
-          }
-
-          @Override
-          public Tuple2<ShortMatrixBlock, ShortMatrixBlock> map(ShortMatrixBlock distanceBlock) throws Exception {
-            ShortMatrixBlock weightBlock = new ShortMatrixBlock();
-            weightBlock.setBlockRows(distanceBlock.getBlockRows());
-            weightBlock.setMatrixCols(distanceBlock.getMatrixCols());
-            weightBlock.setMatrixRows(distanceBlock.getMatrixRows());
-            weightBlock.setIndex(distanceBlock.getIndex());
-            weightBlock.setStart(distanceBlock.getStart());
-
-            // check weather this is HDFS
-            String protocolSplit[] = weightFile.split(":");
-            if (protocolSplit.length > 1 && protocolSplit[0].trim().equals("hdfs")) {
-              readHDFSFile(weightFile, isBigEndian, weightBlock);
-            } else {
-              // regular file
-              readFile(weightFile, isBigEndian, weightBlock);
-            }
-            return new Tuple2<ShortMatrixBlock, ShortMatrixBlock>(distanceBlock, weightBlock);
-          }
-        }).withParameters(parameters);
-
-    return distanceWeights;
-  }
+  /**
+   * Replaces the zero distances of a block with the positive minimum while reading it
+   */
+  public static class PositiveMinTransform implements BlockTransform<ShortMatrixBlock> {
+    private final double positiveMin;
+    private final DistanceTransform distanceTransform;
 
-  private static void readHDFSFile(String weightFile, boolean isBigEndian, ShortMatrixBlock weightBlock) throws Exception {
-    Path pt = new Path(weightFile);
-    org.apache.hadoop.conf.Configuration conf = new org.apache.hadoop.conf.Configuration();
-    conf.addResource(new Path("/N/u/skamburu/deploy/hadoop-2.7.3/etc/hadoop/core-site.xml"));
-    FileSystem fs = FileSystem.get(conf);
-    // now read the data from the file
-    try (BufferedInputStream pointBufferedStream = new BufferedInputStream(fs.open(pt))) {
-      DataInput pointStream = isBigEndian ? new DataInputStream(
-          pointBufferedStream) : new LittleEndianDataInputStream(
-          pointBufferedStream);
-      int rows = weightBlock.getBlockRows();
-      int cols = weightBlock.getMatrixCols();
-      short []data = new short[rows * cols];
-      int index = 0;
-      int size = weightBlock.getStart() * weightBlock.getMatrixCols();
-      for (int i = 0; i < size; i++) {
-        pointStream.readShort();
-      }
-      for (int i = 0; i < rows; i++) {
-        for (int j = 0; j < cols; j++) {
-          data[index++] = pointStream.readShort();
-        }
-      }
-      weightBlock.setData(data);
+    public PositiveMinTransform(double positiveMin, DistanceTransform distanceTransform) {
+      this.positiveMin = positiveMin;
+      this.distanceTransform = distanceTransform;
     }
-  }
 
-  private static void readFile(String weightFile, boolean isBigEndian, ShortMatrixBlock weightBlock) throws Exception {
-    // now read the data from the file
-    try (
-        BufferedInputStream pointBufferedStream = new BufferedInputStream(
-            Files.newInputStream(Paths.get(weightFile),StandardOpenOption.READ)))
-    {
-      DataInput pointStream = isBigEndian ? new DataInputStream(
-          pointBufferedStream) : new LittleEndianDataInputStream(
-          pointBufferedStream);
-      int rows = weightBlock.getBlockRows();
-      int cols = weightBlock.getMatrixCols();
-      short []data = new short[rows * cols];
-      int index = 0;
-      int size = weightBlock.getStart() * weightBlock.getMatrixCols();
-      for (int i = 0; i < size; i++) {
-        pointStream.readShort();
-      }
-      for (int i = 0; i < rows; i++) {
-        for (int j = 0; j < cols; j++) {
-          data[index++] = pointStream.readShort();
-        }
-      }
-      weightBlock.setData(data);
+    @Override
+    public String getName() {
+      return "positiveMin=" + positiveMin + "," + distanceTransform.getName();
+    }
 
+    @Override
+    public void transform(ShortMatrixBlock block) {
+      changeZeroDistancesToPostiveMin(block.getData(), positiveMin, distanceTransform);
     }
   }
 
+  /**
+   * The positive minimum is a transformed distance, the short value replacing the smaller
+   * distances is the one that transforms to it.
+   */
   private static void changeZeroDistancesToPostiveMin(
-      short[] distances, double positiveMin) {
+      short[] distances, double positiveMin, DistanceTransform transform) {
+    short positiveMinValue = (short)(positiveMin * SHORT_MAX);
+    for (short s = 1; s > 0; s++) {
+      if (transform.getDistance(s) == positiveMin) {
+        positiveMinValue = s;
+        break;
+      }
+    }
     double tmpD;
     for (int i = 0; i < distances.length; ++i){
-      tmpD = distances[i] * INV_SHORT_MAX;
-      if (tmpD < positiveMin && tmpD >= 0.0){
-        distances[i] = (short)(positiveMin * SHORT_MAX);
+      if (distances[i] < 0) {
+        continue;
+      }
+      tmpD = transform.getDistance(distances[i]);
+      if (tmpD < positiveMin){
+        distances[i] = positiveMinValue;
       }
     }
   }
@@ -0,0 +1,37 @@
+package edu.iu.dsc.flink.damds;
+
+/**
+ * The distances at a temperature T. The heated distance of d is d - diff if d >= diff and 0
+ * otherwise, where diff = sqrt(2 * targetDimension) * T. It depends on the short of the distance
+ * only, so a table of the heated distance of every non negative short is built once per temperature
+ * and the kernels look the value up instead of transforming and heating every distance.
+ */
+public class HeatedDistances {
+  private final DistanceTransform transform;
+  private final double[] table = new double[Short.MAX_VALUE + 1];
+  // diff of the table, NaN if the table is not built
+  private double diff = Double.NaN;
+
+  public HeatedDistances(DistanceTransform transform) {
+    this.transform = transform;
+  }
+
+  /**
+   * The table for the temperature, built if the temperature has changed
+   */
+  public double[] get(double tCur, int targetDimension) {
+    double d = diff(tCur, targetDimension);
+    if (d != diff) {
+      for (int s = 0; s < table.length; s++) {
+        double origD = transform.getDistance((short) s);
+        table[s] = origD >= d ? origD - d : 0.0;
+      }
+      diff = d;
+    }
+    return table;
+  }
+
+  public static double diff(double tCur, int targetDimension) {
+    return tCur > 10E-10 ? Math.sqrt(2.0 * targetDimension) * tCur : 0.0;
+  }
+}
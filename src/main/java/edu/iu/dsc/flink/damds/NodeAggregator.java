@@ -0,0 +1,124 @@
+package edu.iu.dsc.flink.damds;
+
+import org.apache.flink.api.common.functions.MapPartitionFunction;
+import org.apache.flink.api.common.functions.Partitioner;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.util.Collector;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Combines the partial results of the blocks in groups before they are sent to the reducer, so the
+ * reducer receives a partial per group instead of a partial per block.
+ *
+ * A partial is keyed by its block and the blocks are put in groups of consecutive keys, the size of
+ * a group is {@link Constants#NODE_AGGREGATION_SIZE}. The partials of a group are sent to one task
+ * with a custom partitioning and that task combines them in the order of their keys. The groups do
+ * not depend on where the tasks run or when they finish, so the partials are always added in the
+ * same order and the results are the same from run to run. The reducer should add the combined
+ * partials in the order of their keys as well.
+ */
+public abstract class NodeAggregator<T> implements Serializable {
+  /**
+   * The block of a partial
+   */
+  protected abstract int key(T partial);
+
+  /**
+   * Combine the partials of a group, given in the order of their keys
+   */
+  protected abstract List<T> combine(List<T> partials);
+
+  public static boolean isEnabled(Configuration parameters) {
+    return parameters.getBoolean(Constants.NODE_AGGREGATION, false);
+  }
+
+  /**
+   * Combine the partials of each group of blocks
+   */
+  public DataSet<T> aggregate(DataSet<T> partials, TypeInformation<T> type, Configuration parameters) {
+    final int size = Math.max(1, parameters.getInteger(Constants.NODE_AGGREGATION_SIZE, 1));
+    return partials.partitionCustom(new GroupPartitioner(size), new BlockKey<T>(this))
+        .mapPartition(new GroupCombiner<T>(this, size)).returns(type);
+  }
+
+  /**
+   * Sort the partials in the order of their keys
+   */
+  public void sort(List<T> partials) {
+    Collections.sort(partials, new Comparator<T>() {
+      @Override
+      public int compare(T o1, T o2) {
+        return Integer.compare(key(o1), key(o2));
+      }
+    });
+  }
+
+  private static class BlockKey<T> implements KeySelector<T, Integer> {
+    private final NodeAggregator<T> aggregator;
+
+    BlockKey(NodeAggregator<T> aggregator) {
+      this.aggregator = aggregator;
+    }
+
+    @Override
+    public Integer getKey(T partial) throws Exception {
+      return aggregator.key(partial);
+    }
+  }
+
+  /**
+   * Sends all the blocks of a group to the same task
+   */
+  private static class GroupPartitioner implements Partitioner<Integer> {
+    private final int size;
+
+    GroupPartitioner(int size) {
+      this.size = size;
+    }
+
+    @Override
+    public int partition(Integer key, int numPartitions) {
+      return (key / size) % numPartitions;
+    }
+  }
+
+  private static class GroupCombiner<T> implements MapPartitionFunction<T, T> {
+    private final NodeAggregator<T> aggregator;
+    private final int size;
+
+    GroupCombiner(NodeAggregator<T> aggregator, int size) {
+      this.aggregator = aggregator;
+      this.size = size;
+    }
+
+    @Override
+    public void mapPartition(Iterable<T> iterable, Collector<T> collector) throws Exception {
+      Map<Integer, List<T>> groups = new TreeMap<Integer, List<T>>();
+      for (T t : iterable) {
+        int group = aggregator.key(t) / size;
+        List<T> partials = groups.get(group);
+        if (partials == null) {
+          partials = new ArrayList<T>();
+          groups.put(group, partials);
+        }
+        partials.add(t);
+      }
+      for (List<T> partials : groups.values()) {
+        aggregator.sort(partials);
+        for (T t : aggregator.combine(partials)) {
+          collector.collect(t);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package edu.iu.dsc.flink.damds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Splits the rows of a block across threads inside a task. The threads come from a fork join pool
+ * shared by all the tasks of the TaskManager that use the same thread count.
+ */
+public final class ParallelOps {
+  // pools by parallelism, the tasks of a job use the same thread count so there is usually one
+  private static final ConcurrentMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+  private ParallelOps() {
+  }
+
+  public interface RowRangeTask {
+    /**
+     * Process the local rows [startRow, endRow)
+     * @param thread index of the thread, from 0 to threadCount - 1
+     */
+    void run(int thread, int startRow, int endRow);
+  }
+
+  /**
+   * The pool with the given parallelism. A pool is never shut down because the other tasks of the
+   * TaskManager may still be submitting to it, the idle workers of a fork join pool exit on their own.
+   */
+  private static ForkJoinPool getPool(int threadCount) {
+    ForkJoinPool pool = POOLS.get(threadCount);
+    if (pool == null) {
+      ForkJoinPool created = new ForkJoinPool(threadCount);
+      pool = POOLS.putIfAbsent(threadCount, created);
+      if (pool == null) {
+        pool = created;
+      } else {
+        created.shutdown();
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * Run the task over rows split in to threadCount contiguous ranges and wait for all of them.
+   * With a single thread the task runs in the calling thread.
+   */
+  public static void parallelFor(int threadCount, int rows, final RowRangeTask task) {
+    if (threadCount <= 1 || rows <= 1) {
+      task.run(0, 0, rows);
+      return;
+    }
+    ForkJoinPool forkJoinPool = getPool(threadCount);
+    List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(threadCount);
+    int q = rows / threadCount;
+    int r = rows % threadCount;
+    int start = 0;
+    for (int t = 0; t < threadCount; t++) {
+      final int thread = t;
+      final int startRow = start;
+      final int endRow = start + q + (t < r ? 1 : 0);
+      tasks.add(forkJoinPool.submit(new Runnable() {
+        @Override
+        public void run() {
+          task.run(thread, startRow, endRow);
+        }
+      }));
+      start = endRow;
+    }
+    for (ForkJoinTask<?> t : tasks) {
+      t.join();
+    }
+  }
+}
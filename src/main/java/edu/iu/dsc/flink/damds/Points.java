@@ -0,0 +1,75 @@
+package edu.iu.dsc.flink.damds;
+
+import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
+import edu.iu.dsc.flink.mm.ShortMatrixBlock;
+import org.apache.flink.api.common.functions.RichGroupReduceFunction;
+import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.util.Collector;
+
+import java.util.List;
+
+/**
+ * Row partitioning of the point matrix. The points are partitioned with the same row ranges as
+ * the distance blocks, so the task owning a distance block owns the corresponding points.
+ */
+public class Points {
+  /**
+   * Split the points in to row blocks, one for each distance block
+   */
+  public static DataSet<Matrix> partition(DataSet<Matrix> points,
+                                          DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distanceWeights) {
+    return distanceWeights.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Matrix>() {
+      @Override
+      public Matrix map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
+        List<Matrix> pointsList = getRuntimeContext().getBroadcastVariable("points");
+        Matrix p = pointsList.get(0);
+        ShortMatrixBlock block = tuple.f0;
+        int cols = p.getCols();
+        double[] data = new double[block.getBlockRows() * cols];
+        System.arraycopy(p.getData(), block.getStart() * cols, data, 0, data.length);
+        Matrix m = new Matrix(data, block.getBlockRows(), cols, block.getIndex(), false);
+        m.setStartIndex(block.getStart());
+        return m;
+      }
+    }).returns(MatrixTypes.MATRIX).withBroadcastSet(points, "points");
+  }
+
+  /**
+   * Gather the row blocks in to a single point matrix
+   */
+  public static DataSet<Matrix> gather(DataSet<Matrix> blocks, Configuration parameters) {
+    return blocks.reduceGroup(new RichGroupReduceFunction<Matrix, Matrix>() {
+      int globalRows;
+      int targetDimension;
+
+      @Override
+      public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        this.globalRows = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+        this.targetDimension = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
+      }
+
+      @Override
+      public void reduce(Iterable<Matrix> iterable, Collector<Matrix> collector) throws Exception {
+        double[] vals = new double[globalRows * targetDimension];
+        int rows = 0;
+        for (Matrix m : iterable) {
+          if (m.getCols() != targetDimension || m.getStartIndex() + m.getRows() > globalRows) {
+            throw new RuntimeException("Invalid point block start=" + m.getStartIndex()
+                + " rows=" + m.getRows() + " cols=" + m.getCols());
+          }
+          System.arraycopy(m.getData(), 0, vals, m.getStartIndex() * targetDimension, m.getData().length);
+          rows += m.getRows();
+        }
+        if (rows != globalRows) {
+          throw new RuntimeException("Failed to gather rows != globalRows, rows=" + rows + " globalRows=" + globalRows);
+        }
+        collector.collect(new Matrix(vals, globalRows, targetDimension, false));
+      }
+    }).returns(MatrixTypes.MATRIX).withParameters(parameters).setParallelism(1);
+  }
+}
@@ -0,0 +1,87 @@
+package edu.iu.dsc.flink.damds;
+
+import org.apache.flink.api.common.aggregators.Aggregator;
+import org.apache.flink.api.common.aggregators.ConvergenceCriterion;
+import org.apache.flink.api.common.aggregators.DoubleSumAggregator;
+import org.apache.flink.api.common.aggregators.LongSumAggregator;
+import org.apache.flink.api.common.functions.IterationRuntimeContext;
+import org.apache.flink.api.common.functions.RuntimeContext;
+import org.apache.flink.api.java.operators.IterativeDataSet;
+import org.apache.flink.types.DoubleValue;
+import org.apache.flink.types.LongValue;
+
+/**
+ * Scalars of the iterations that are reduced with iteration aggregators instead of data sets. The
+ * tasks add their partials to the aggregator of the superstep and Flink combines them at the
+ * superstep barrier, so the scalars need no reduce operator and no broadcast. The combined value
+ * is available to the tasks in the next superstep.
+ */
+public final class ScalarAggregators {
+  // stress of the points a stress iteration starts with, calculated along with BC
+  public static final String PRE_STRESS = "preStress";
+  // stress of the points a stress iteration ends with
+  public static final String POST_STRESS = "postStress";
+  // number of converged CG loops
+  public static final String CG_CONVERGED = "cgConverged";
+
+  private ScalarAggregators() {
+  }
+
+  /**
+   * Register the stress aggregators with the stress iteration
+   */
+  public static void registerStress(IterativeDataSet<?> loop) {
+    loop.registerAggregator(PRE_STRESS, new DoubleSumAggregator());
+    loop.registerAggregator(POST_STRESS, new DoubleSumAggregator());
+  }
+
+  /**
+   * Register the convergence of the CG loop, the iteration stops after a superstep that converged
+   */
+  public static void registerCGConvergence(IterativeDataSet<?> loop) {
+    loop.registerAggregationConvergenceCriterion(CG_CONVERGED, new LongSumAggregator(), new AnyConverged());
+  }
+
+  /**
+   * Add the value to the aggregator. Nothing is added if the task is not in an iteration that
+   * registered the aggregator, so the kernels can be used in and outside of the iterations.
+   */
+  public static void add(RuntimeContext context, String name, double value) {
+    Aggregator<?> aggregator = get(context, name);
+    if (aggregator instanceof DoubleSumAggregator) {
+      ((DoubleSumAggregator) aggregator).aggregate(value);
+    }
+  }
+
+  public static void add(RuntimeContext context, String name, long value) {
+    Aggregator<?> aggregator = get(context, name);
+    if (aggregator instanceof LongSumAggregator) {
+      ((LongSumAggregator) aggregator).aggregate(value);
+    }
+  }
+
+  /**
+   * The value aggregated in the previous superstep
+   */
+  public static double previous(RuntimeContext context, String name) {
+    DoubleValue value = ((IterationRuntimeContext) context).getPreviousIterationAggregate(name);
+    if (value == null) {
+      throw new RuntimeException("No value aggregated for " + name + " in the previous superstep");
+    }
+    return value.getValue();
+  }
+
+  private static Aggregator<?> get(RuntimeContext context, String name) {
+    if (context instanceof IterationRuntimeContext) {
+      return ((IterationRuntimeContext) context).getIterationAggregator(name);
+    }
+    return null;
+  }
+
+  private static class AnyConverged implements ConvergenceCriterion<LongValue> {
+    @Override
+    public boolean isConverged(int iteration, LongValue value) {
+      return value.getValue() > 0;
+    }
+  }
+}
@@ -5,19 +5,33 @@ import edu.iu.dsc.flink.mm.ShortMatrixBlock;
 import org.apache.flink.api.common.functions.ReduceFunction;
 import org.apache.flink.api.common.functions.RichFlatMapFunction;
 import org.apache.flink.api.java.DataSet;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.util.Collector;
 
 public class Statistics {
-  public static DataSet<DoubleStatistics> calculateStatistics(DataSet<ShortMatrixBlock> matrixBlockDataSet) {
+  /**
+   * Statistics of the distances after applying the distance transformation
+   */
+  public static DataSet<DoubleStatistics> calculateStatistics(DataSet<ShortMatrixBlock> matrixBlockDataSet,
+                                                              Configuration parameters) {
     DataSet<DoubleStatistics> stats = matrixBlockDataSet.flatMap(new RichFlatMapFunction<ShortMatrixBlock, DoubleStatistics>() {
+      DistanceTransform transform;
+
+      @Override
+      public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        transform = DistanceTransform.of(parameters);
+      }
+
       @Override
       public void flatMap(ShortMatrixBlock shortMatrixBlock, Collector<DoubleStatistics> collector) throws Exception {
-        DoubleStatistics doubleStatistics = calculateStatisticsInternal(shortMatrixBlock.getData(),
-            shortMatrixBlock.getBlockRows(), shortMatrixBlock.getMatrixCols());
+        DoubleStatistics doubleStatistics = shortMatrixBlock.isUpperTriangular()
+            ? calculateTriangularStatisticsInternal(shortMatrixBlock, transform)
+            : calculateStatisticsInternal(shortMatrixBlock.getData(), shortMatrixBlock.getEntryCount(), transform);
         //System.out.println("Calculate stats");
         collector.collect(doubleStatistics);
       }
-    }).reduce(new ReduceFunction<DoubleStatistics>() {
+    }).withParameters(parameters).reduce(new ReduceFunction<DoubleStatistics>() {
       @Override
       public DoubleStatistics reduce(DoubleStatistics doubleStatistics, DoubleStatistics t1) throws Exception {
         doubleStatistics.combine(t1);
@@ -27,20 +41,49 @@ public class Statistics {
     return stats;
   }
 
+  /**
+   * The statistics do not depend on the position of a distance, so the stored entries of dense and
+   * sparse blocks are taken in order
+   */
   private static DoubleStatistics calculateStatisticsInternal(
-      short[] distances, int blockRowCount, int globalColCount) {
+      short[] distances, int entryCount, DistanceTransform transform) {
+    DoubleStatistics stat = new DoubleStatistics();
+    double origD;
+    for (int entry = 0; entry < entryCount; ++entry) {
+      origD = transform.getDistance(distances[entry]);
+      if (origD < 0) {
+        // Missing distance
+        continue;
+      }
+      stat.accept(origD);
+    }
+    return stat;
+  }
+
+  /**
+   * The entries above the diagonal stand for their mirrors as well, so they are taken twice
+   */
+  private static DoubleStatistics calculateTriangularStatisticsInternal(
+      ShortMatrixBlock block, DistanceTransform transform) {
     DoubleStatistics stat = new DoubleStatistics();
-    int procLocalRow;
+    short[] distances = block.getData();
+    int[] columns = block.getColumns();
     double origD;
-    for (int localRow = 0; localRow < blockRowCount; ++localRow){
-      procLocalRow = localRow;
-      for (int globalCol = 0; globalCol < globalColCount; globalCol++) {
-        origD = distances[procLocalRow * globalColCount + globalCol] * DAMDSUtils.INV_SHORT_MAX;
+    for (int localRow = 0; localRow < block.getBlockRows(); ++localRow) {
+      int globalRow = localRow + block.getStart();
+      int rowEntry = block.getRowEntry(localRow);
+      int rowEnd = block.getRowEntry(localRow + 1);
+      for (int entry = rowEntry; entry < rowEnd; ++entry) {
+        origD = transform.getDistance(distances[entry]);
         if (origD < 0) {
           // Missing distance
           continue;
         }
         stat.accept(origD);
+        int globalCol = columns != null ? columns[entry] : block.getFirstColumn(localRow) + entry - rowEntry;
+        if (globalCol != globalRow) {
+          stat.accept(origD);
+        }
       }
     }
     return stat;
@@ -1,39 +1,47 @@
 package edu.iu.dsc.flink.damds;
 
-import edu.indiana.soic.spidal.common.WeightsWrap1D;
 import edu.iu.dsc.flink.mm.Matrix;
 import edu.iu.dsc.flink.mm.ShortMatrixBlock;
 import mpi.MPIException;
 import org.apache.flink.api.common.functions.GroupReduceFunction;
-import org.apache.flink.api.common.functions.RichMapFunction;
+import org.apache.flink.api.common.functions.RichFlatMapFunction;
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+import org.apache.flink.configuration.Configuration;
 import org.apache.flink.util.Collector;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+
 public class Stress {
-  public static DataSet<Double> calculate(DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distances, DataSet<Matrix> prexDataSet) {
-    DataSet<Double> dataSet = distances.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Tuple2<Integer, Double>>() {
-      @Override
-      public Tuple2<Integer, Double> map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
-        List<Matrix> matrix = getRuntimeContext().getBroadcastVariable("prex");
-        Matrix matrixB = matrix.get(0);
-
-        ShortMatrixBlock distances = tuple.f0;
-        ShortMatrixBlock weights = tuple.f1;
-        double tCur = (double) matrixB.getProperties().get("tCur");
-        double invs = (double) matrixB.getProperties().get("invs");
-        WeightsWrap1D weightsWrap1D = new WeightsWrap1D(weights.getData(), null, false, weights.getMatrixCols());
-        double stress = calculateStress(matrixB.getData(), matrixB.getCols(), tCur, distances, invs,
-            distances.getBlockRows(), distances.getStart(), distances.getMatrixCols(), weightsWrap1D);
-        return new Tuple2<Integer, Double>(0, stress);
-      }
-    }).withBroadcastSet(prexDataSet, "prex").reduceGroup(new GroupReduceFunction<Tuple2<Integer,Double>, Double>() {
+  // the stress of a block keyed by the index of the block
+  private static final TypeInformation<Tuple2<Integer, Double>> PARTIAL =
+      new TupleTypeInfo<Tuple2<Integer, Double>>(BasicTypeInfo.INT_TYPE_INFO, BasicTypeInfo.DOUBLE_TYPE_INFO);
+
+  public static DataSet<Double> calculate(DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distances,
+                                         DataSet<Matrix> prexDataSet, Configuration parameters) {
+    DataSet<Tuple2<Integer, Double>> partials = distances.flatMap(new BlockStress(false))
+        .withBroadcastSet(prexDataSet, "prex").withParameters(parameters);
+    if (NodeAggregator.isEnabled(parameters)) {
+      partials = new SumAggregator().aggregate(partials, PARTIAL, parameters);
+    }
+
+    DataSet<Double> dataSet = partials.reduceGroup(new GroupReduceFunction<Tuple2<Integer,Double>, Double>() {
       @Override
       public void reduce(Iterable<Tuple2<Integer, Double>> iterable, Collector<Double> collector) throws Exception {
-        double sum = 0;
+        // the partials are added in the order of their blocks, so the sum does not depend on the order they arrive
+        List<Tuple2<Integer, Double>> partials = new ArrayList<Tuple2<Integer, Double>>();
         for (Tuple2<Integer, Double> d : iterable) {
+          partials.add(d);
+        }
+        new SumAggregator().sort(partials);
+        double sum = 0;
+        for (Tuple2<Integer, Double> d : partials) {
           sum += d.f1;
         }
         collector.collect(sum);
@@ -42,36 +50,128 @@ public class Stress {
     return dataSet;
   }
 
+  /**
+   * Calculate the stress inside a stress iteration. The stress of the blocks is added to the
+   * {@link ScalarAggregators#POST_STRESS} aggregator instead of being reduced, the returned data set
+   * is empty and only keeps the calculation in the step function.
+   */
+  public static DataSet<Tuple2<Integer, Double>> aggregate(DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distances,
+                                                           DataSet<Matrix> prexDataSet, Configuration parameters) {
+    return distances.flatMap(new BlockStress(true)).withBroadcastSet(prexDataSet, "prex").withParameters(parameters);
+  }
+
+  /**
+   * The stress of a block of distances, emitted or added to the post stress aggregator
+   */
+  private static class BlockStress extends RichFlatMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Tuple2<Integer, Double>> {
+    double[] simpleWeights;
+    boolean sammon;
+    DistanceTransform transform;
+    HeatedDistances heatedDistances;
+    int threadCount;
+    boolean aggregate;
+
+    public BlockStress(boolean aggregate) {
+      this.aggregate = aggregate;
+    }
+
+    @Override
+    public void open(Configuration parameters) throws Exception {
+      super.open(parameters);
+      threadCount = parameters.getInteger(Constants.THREAD_COUNT, 1);
+      simpleWeights = Weights.loadSimpleWeights(parameters);
+      sammon = parameters.getBoolean(Constants.SAMMON, false);
+      transform = DistanceTransform.of(parameters);
+      heatedDistances = new HeatedDistances(transform);
+    }
+
+    @Override
+    public void flatMap(Tuple2<ShortMatrixBlock, ShortMatrixBlock> tuple, Collector<Tuple2<Integer, Double>> collector) throws Exception {
+      List<Matrix> matrix = getRuntimeContext().getBroadcastVariable("prex");
+      Matrix matrixB = matrix.get(0);
+
+      ShortMatrixBlock distances = tuple.f0;
+      ShortMatrixBlock weights = tuple.f1;
+      double[] heated = heatedDistances.get(matrixB.getState().tCur, matrixB.getCols());
+      double invs = matrixB.getState().invs;
+      Weights w = new Weights(weights, simpleWeights);
+      if (sammon) {
+        w.useSammonWeights(matrixB.getState().avgDist);
+      }
+      double stress = calculateStress(matrixB.getData(), matrixB.getCols(), heated, distances, invs,
+          distances.getBlockRows(), distances.getStart(), distances.getMatrixCols(), w, transform, threadCount);
+      if (aggregate) {
+        ScalarAggregators.add(getRuntimeContext(), ScalarAggregators.POST_STRESS, stress);
+      } else {
+        collector.collect(new Tuple2<Integer, Double>(distances.getIndex(), stress));
+      }
+    }
+  }
+
+  /**
+   * Adds up the stress of a group of blocks, keyed by the first block of the group
+   */
+  private static class SumAggregator extends NodeAggregator<Tuple2<Integer, Double>> {
+    @Override
+    protected int key(Tuple2<Integer, Double> partial) {
+      return partial.f0;
+    }
+
+    @Override
+    protected List<Tuple2<Integer, Double>> combine(List<Tuple2<Integer, Double>> partials) {
+      double sum = 0;
+      for (Tuple2<Integer, Double> d : partials) {
+        sum += d.f1;
+      }
+      return Collections.singletonList(new Tuple2<Integer, Double>(partials.get(0).f0, sum));
+    }
+  }
+
   private static double calculateStress(
-      double[] preX, int targetDimension, double tCur, ShortMatrixBlock block,
-      double invSumOfSquareDist, int blockRowCount, int rowStartIndex, int globalColCount, WeightsWrap1D weights)
-      throws MPIException {
-    double stress;
-    stress = calculateStressInternal(preX, targetDimension, tCur,
-        block.getData(), blockRowCount, rowStartIndex, globalColCount, weights);
+      final double[] preX, final int targetDimension, final double[] heated, final ShortMatrixBlock block,
+      double invSumOfSquareDist, int blockRowCount, final int rowStartIndex, final int globalColCount,
+      final Weights weights, final DistanceTransform transform, int threadCount) throws MPIException {
+    // each thread adds the rows assigned to it, partials are added in thread order
+    final double[] threadPartialStress = new double[threadCount];
+    ParallelOps.parallelFor(threadCount, blockRowCount, new ParallelOps.RowRangeTask() {
+      @Override
+      public void run(int thread, int startRow, int endRow) {
+        threadPartialStress[thread] = calculateStressInternal(preX, targetDimension, heated,
+            block, startRow, endRow, rowStartIndex, weights, transform);
+      }
+    });
+    double stress = 0;
+    for (double s : threadPartialStress) {
+      stress += s;
+    }
     return stress * invSumOfSquareDist;
   }
 
-  private static double calculateStressInternal(double[] preX, int targetDim, double tCur,
-                                                short[] distances, int blockRowCount,
-                                                int rowStartIndex, int globalColCount, WeightsWrap1D weights) {
+  private static double calculateStressInternal(double[] preX, int targetDim, double[] heated,
+                                                ShortMatrixBlock block, int startRow, int endRow,
+                                                int rowStartIndex, Weights weights,
+                                                DistanceTransform transform) {
 
     double sigma = 0.0;
-    double diff = 0.0;
-    if (tCur > 10E-10) {
-      diff = Math.sqrt(2.0 * targetDim) * tCur;
-    }
 
-    int globalRow, procLocalRow;
-    double origD, weight, euclideanD;
-    double heatD, tmpD;
-    for (int localRow = 0; localRow < blockRowCount; ++localRow){
+    // a sparse block has the stored entries of a row only, a dense block has all the columns. an
+    // entry above the diagonal of a triangular block adds the stress of its mirror as well
+    short[] distances = block.getData();
+    int[] columns = block.getColumns();
+    boolean upperTriangular = block.isUpperTriangular();
+    int globalRow, procLocalRow, globalCol, rowEntry, rowEnd, firstColumn;
+    double origD, weight, euclideanD, mirror;
+    double tmpD;
+    for (int localRow = startRow; localRow < endRow; ++localRow){
       globalRow = localRow + rowStartIndex;
       procLocalRow = localRow;
-      for (int globalCol = 0; globalCol < globalColCount; globalCol++) {
-        origD = distances[procLocalRow * globalColCount + globalCol]
-            * DAMDSUtils.INV_SHORT_MAX;
-        weight = weights.getWeight(procLocalRow, globalCol);
+      rowEntry = block.getRowEntry(localRow);
+      rowEnd = block.getRowEntry(localRow + 1);
+      firstColumn = block.getFirstColumn(localRow);
+      for (int entry = rowEntry; entry < rowEnd; entry++) {
+        globalCol = columns != null ? columns[entry] : firstColumn + entry - rowEntry;
+        origD = transform.getDistance(distances[entry]);
+        weight = weights.getWeightAt(entry, procLocalRow, globalCol, origD);
         if (origD < 0) {
           continue;
         }
@@ -79,9 +179,9 @@ public class Stress {
         try {
           euclideanD = globalRow != globalCol ? DAMDSUtils.calculateEuclideanDist(
               preX, globalRow, globalCol, targetDim) : 0.0;
-          heatD = origD - diff;
-          tmpD = origD >= diff ? heatD - euclideanD : -euclideanD;
-          sigma += weight * tmpD * tmpD;
+          tmpD = heated[distances[entry]] - euclideanD;
+          mirror = upperTriangular && globalCol != globalRow ? 2.0 : 1.0;
+          sigma += mirror * weight * tmpD * tmpD;
         } catch (ArrayIndexOutOfBoundsException e) {
           String format = String.format("%d %d %d %d %d %d", globalRow, globalCol, procLocalRow, targetDim, rowStartIndex, localRow);
           System.out.println(format);
@@ -0,0 +1,121 @@
+package edu.iu.dsc.flink.damds;
+
+import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
+import org.apache.flink.api.common.functions.GroupReduceFunction;
+import org.apache.flink.api.common.functions.ReduceFunction;
+import org.apache.flink.api.java.DataSet;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.util.Collector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Results of the kernels when the distances and weights are kept as the upper triangle of the
+ * matrices. The mirror of an entry of a block belongs to a row of another block, so the partial
+ * result of a block covers all the rows of the result and the partials are added up instead of
+ * being gathered as row blocks.
+ */
+public final class TriangularMatrix {
+  private TriangularMatrix() {
+  }
+
+  public static boolean isTriangular(Configuration parameters) {
+    return parameters.getBoolean(Constants.TRIANGULAR_MATRIX, false);
+  }
+
+  /**
+   * Add up the partial results of the blocks, the stress property is added along with the data. The
+   * partials are indexed by their blocks. With node aggregation the groups of blocks are added up
+   * first and the sums of the groups are added in the order of the groups.
+   */
+  public static DataSet<Matrix> sum(DataSet<Matrix> partials, Configuration parameters) {
+    if (NodeAggregator.isEnabled(parameters)) {
+      return new SumAggregator().aggregate(partials, MatrixTypes.MATRIX, parameters)
+          .reduceGroup(new OrderedSum()).returns(MatrixTypes.MATRIX);
+    }
+    return partials.reduce(new Sum());
+  }
+
+  /**
+   * Add the partial results of the threads of a task to the first one
+   */
+  static double[] sumThreads(double[][] threadPartials) {
+    double[] sum = threadPartials[0];
+    for (int t = 1; t < threadPartials.length; t++) {
+      double[] partial = threadPartials[t];
+      for (int i = 0; i < sum.length; i++) {
+        sum[i] += partial[i];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * The first thread writes in to out, the others get their own arrays of the same size
+   */
+  static double[][] threadPartials(double[] out, int threadCount) {
+    double[][] partials = new double[threadCount][];
+    partials[0] = out;
+    for (int t = 1; t < threadCount; t++) {
+      partials[t] = new double[out.length];
+    }
+    return partials;
+  }
+
+  private static Matrix add(Matrix to, Matrix from) {
+    double[] a = to.getData();
+    double[] b = from.getData();
+    for (int i = 0; i < a.length; i++) {
+      a[i] += b[i];
+    }
+    to.getState().stress += from.getState().stress;
+    return to;
+  }
+
+  private static class Sum implements ReduceFunction<Matrix> {
+    @Override
+    public Matrix reduce(Matrix m1, Matrix m2) throws Exception {
+      return add(m1, m2);
+    }
+  }
+
+  /**
+   * Adds up the partials of a group of blocks, the sum keeps the index of the first block
+   */
+  private static class SumAggregator extends NodeAggregator<Matrix> {
+    @Override
+    protected int key(Matrix partial) {
+      return partial.getIndex();
+    }
+
+    @Override
+    protected List<Matrix> combine(List<Matrix> partials) {
+      Matrix sum = partials.get(0);
+      for (int i = 1; i < partials.size(); i++) {
+        add(sum, partials.get(i));
+      }
+      return Collections.singletonList(sum);
+    }
+  }
+
+  /**
+   * Adds up the sums of the groups in the order of their indexes
+   */
+  private static class OrderedSum implements GroupReduceFunction<Matrix, Matrix> {
+    @Override
+    public void reduce(Iterable<Matrix> iterable, Collector<Matrix> collector) throws Exception {
+      List<Matrix> partials = new ArrayList<Matrix>();
+      for (Matrix m : iterable) {
+        partials.add(m);
+      }
+      SumAggregator aggregator = new SumAggregator();
+      aggregator.sort(partials);
+      for (Matrix m : aggregator.combine(partials)) {
+        collector.collect(m);
+      }
+    }
+  }
+}
@@ -1,61 +1,211 @@
 package edu.iu.dsc.flink.damds;
 
-import edu.indiana.soic.spidal.common.WeightsWrap1D;
+import edu.indiana.soic.spidal.common.DoubleStatistics;
+import edu.iu.dsc.flink.mm.BlockCache;
 import edu.iu.dsc.flink.mm.Matrix;
+import edu.iu.dsc.flink.mm.MatrixTypes;
 import edu.iu.dsc.flink.mm.ShortMatrixBlock;
 import org.apache.flink.api.common.functions.RichMapFunction;
 import org.apache.flink.api.java.DataSet;
 import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
 import org.apache.flink.configuration.Configuration;
 
-import static edu.iu.dsc.flink.damds.DAMDSUtils.INV_SHORT_MAX;
+import java.util.List;
 
 public class VArray {
-  public static DataSet<Tuple2<Matrix, ShortMatrixBlock>> generateVArray(
+  /**
+   * Generate the diagonal of V for each block, the result carries the distance and weight blocks
+   * so that V can be multiplied without a join. The average distance is kept in the avgDist
+   * property of the vArray for the Sammon weights.
+   */
+  public static DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> generateVArray(
       DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distancesWeights,
-      Configuration parameters) {
-    DataSet<Tuple2<Matrix, ShortMatrixBlock>> dataSet = distancesWeights.map(
-        new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Tuple2<Matrix, ShortMatrixBlock>>() {
+      DataSet<DoubleStatistics> stats, Configuration parameters) {
+    if (TriangularMatrix.isTriangular(parameters)) {
+      return generateTriangularVArray(distancesWeights, stats, parameters);
+    }
+    DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> dataSet = distancesWeights.map(
+        new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>>() {
       int targetDimention;
+      boolean cached;
+      String distanceFile;
+      double[] simpleWeights;
+      boolean sammon;
+      DistanceTransform transform;
+      String cacheName;
+      int threadCount;
       @Override
       public void open(Configuration parameters) throws Exception {
         super.open(parameters);
+        this.threadCount = parameters.getInteger(Constants.THREAD_COUNT, 1);
+        this.simpleWeights = Weights.loadSimpleWeights(parameters);
+        this.sammon = parameters.getBoolean(Constants.SAMMON, false);
+        this.transform = DistanceTransform.of(parameters);
+        this.cacheName = cacheName("vArray", transform, parameters);
         this.targetDimention = parameters.getInteger(Constants.TARGET_DIMENSION, 3);
+        this.cached = parameters.getBoolean(Constants.CACHE_BLOCKS, false);
+        if (cached) {
+          BlockCache.beginRun(parameters.getString(Constants.RUN_ID, null));
+        }
+        this.distanceFile = parameters.getString(Constants.DISTANCE_FILE, "distance.bin");
       }
 
       @Override
-      public Tuple2<Matrix, ShortMatrixBlock> map(Tuple2<ShortMatrixBlock,
+      public Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> map(Tuple2<ShortMatrixBlock,
           ShortMatrixBlock> shortMatrixBlock) throws Exception {
         ShortMatrixBlock weights = shortMatrixBlock.f1;
         ShortMatrixBlock distanceMatrixBlock = shortMatrixBlock.f0;
+        if (cached) {
+          Matrix m = BlockCache.get(distanceFile, distanceMatrixBlock.getIndex(), cacheName);
+          if (m != null && m.getStartIndex() == distanceMatrixBlock.getStart()
+              && m.getRows() == distanceMatrixBlock.getBlockRows()) {
+            return new Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>(m, distanceMatrixBlock, weights);
+          }
+        }
 
-        WeightsWrap1D weightsWrap1D = new WeightsWrap1D(weights.getData(), null, false, weights.getMatrixCols());
-        short[] distances = distanceMatrixBlock.getData();
-        double[] vArray = new double[distanceMatrixBlock.getBlockRows()];
-        generateVArrayInternal(distances, weightsWrap1D, vArray,
-            distanceMatrixBlock.getBlockRows(), distanceMatrixBlock.getStart(),
-            distanceMatrixBlock.getMatrixCols());
+        List<DoubleStatistics> statsList = getRuntimeContext().getBroadcastVariable("stats");
+        double avgDist = statsList.get(0).getAverage();
+        Weights w = new Weights(weights, simpleWeights);
+        if (sammon) {
+          w.useSammonWeights(avgDist);
+        }
+        final ShortMatrixBlock distances = distanceMatrixBlock;
+        final double[] vArray = new double[distanceMatrixBlock.getBlockRows()];
+        final Weights weightsOfBlock = w;
+        final int rowStartIndex = distanceMatrixBlock.getStart();
+        final int globalColCount = distanceMatrixBlock.getMatrixCols();
+        ParallelOps.parallelFor(threadCount, distanceMatrixBlock.getBlockRows(), new ParallelOps.RowRangeTask() {
+          @Override
+          public void run(int thread, int startRow, int endRow) {
+            generateVArrayInternal(distances, weightsOfBlock, transform, vArray, startRow, endRow,
+                rowStartIndex, globalColCount);
+          }
+        });
         Matrix m = new Matrix(vArray, distanceMatrixBlock.getBlockRows(), 1,
             distanceMatrixBlock.getIndex(), false);
         m.setStartIndex(distanceMatrixBlock.getStart());
+        m.getState().avgDist = avgDist;
+        if (cached) {
+          BlockCache.put(distanceFile, distanceMatrixBlock.getIndex(), cacheName, m);
+        }
         //System.out.println("Generate varray: " + distanceMatrixBlock.getIndex());
-        return new Tuple2<Matrix, ShortMatrixBlock>(m, weights);
+        return new Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>(m, distanceMatrixBlock, weights);
       }
-    }).withParameters(parameters);
+    }).returns(MatrixTypes.MATRIX_SHORT_MATRIX_BLOCK_PAIR).withBroadcastSet(stats, "stats").withParameters(parameters);
 
     return dataSet;
   }
 
+  /**
+   * Generate the diagonal of V from the upper triangles. An entry of a block adds its weight to the
+   * diagonal of its row and of its column, so each block gives a partial diagonal of all the rows.
+   * The partials are added up and each block takes the rows it holds.
+   */
+  private static DataSet<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> generateTriangularVArray(
+      DataSet<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> distancesWeights,
+      DataSet<DoubleStatistics> stats, Configuration parameters) {
+    DataSet<Matrix> partials = distancesWeights.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>, Matrix>() {
+      boolean cached;
+      String distanceFile;
+      double[] simpleWeights;
+      boolean sammon;
+      DistanceTransform transform;
+      String cacheName;
+      int threadCount;
+
+      @Override
+      public void open(Configuration parameters) throws Exception {
+        super.open(parameters);
+        this.threadCount = parameters.getInteger(Constants.THREAD_COUNT, 1);
+        this.simpleWeights = Weights.loadSimpleWeights(parameters);
+        this.sammon = parameters.getBoolean(Constants.SAMMON, false);
+        this.transform = DistanceTransform.of(parameters);
+        this.cacheName = cacheName("vArrayPartial", transform, parameters);
+        this.cached = parameters.getBoolean(Constants.CACHE_BLOCKS, false);
+        if (cached) {
+          BlockCache.beginRun(parameters.getString(Constants.RUN_ID, null));
+        }
+        this.distanceFile = parameters.getString(Constants.DISTANCE_FILE, "distance.bin");
+      }
+
+      @Override
+      public Matrix map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
+        final ShortMatrixBlock distances = tuple.f0;
+        if (cached) {
+          Matrix m = BlockCache.get(distanceFile, distances.getIndex(), cacheName);
+          if (m != null && m.getStartIndex() == distances.getStart()) {
+            // the sum changes the partial, so the cached one is copied
+            return new Matrix(m.getData().clone(), m.getRows(), 1, distances.getIndex(), false);
+          }
+        }
+
+        List<DoubleStatistics> statsList = getRuntimeContext().getBroadcastVariable("stats");
+        final Weights weights = new Weights(tuple.f1, simpleWeights);
+        if (sammon) {
+          weights.useSammonWeights(statsList.get(0).getAverage());
+        }
+        final double[][] threadV = TriangularMatrix.threadPartials(new double[distances.getMatrixRows()], threadCount);
+        ParallelOps.parallelFor(threadCount, distances.getBlockRows(), new ParallelOps.RowRangeTask() {
+          @Override
+          public void run(int thread, int startRow, int endRow) {
+            generateTriangularVArrayInternal(distances, weights, transform, threadV[thread], startRow, endRow);
+          }
+        });
+        double[] v = TriangularMatrix.sumThreads(threadV);
+        if (cached) {
+          Matrix m = new Matrix(v.clone(), v.length, 1, false);
+          m.setStartIndex(distances.getStart());
+          BlockCache.put(distanceFile, distances.getIndex(), cacheName, m);
+        }
+        return new Matrix(v, v.length, 1, distances.getIndex(), false);
+      }
+    }).returns(MatrixTypes.MATRIX).withBroadcastSet(stats, "stats").withParameters(parameters);
+    DataSet<Matrix> v = TriangularMatrix.sum(partials, parameters);
+
+    return distancesWeights.map(new RichMapFunction<Tuple2<ShortMatrixBlock, ShortMatrixBlock>,
+        Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>>() {
+      @Override
+      public Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock> map(Tuple2<ShortMatrixBlock, ShortMatrixBlock> tuple) throws Exception {
+        List<Matrix> vList = getRuntimeContext().getBroadcastVariable("v");
+        List<DoubleStatistics> statsList = getRuntimeContext().getBroadcastVariable("stats");
+        ShortMatrixBlock distances = tuple.f0;
+        double[] vArray = new double[distances.getBlockRows()];
+        System.arraycopy(vList.get(0).getData(), distances.getStart(), vArray, 0, vArray.length);
+        Matrix m = new Matrix(vArray, vArray.length, 1, distances.getIndex(), false);
+        m.setStartIndex(distances.getStart());
+        m.getState().avgDist = statsList.get(0).getAverage();
+        return new Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>(m, distances, tuple.f1);
+      }
+    }).returns(MatrixTypes.MATRIX_SHORT_MATRIX_BLOCK_PAIR).withBroadcastSet(v, "v").withBroadcastSet(stats, "stats");
+  }
+
+  /**
+   * Name of the cached vArray blocks of the distance file, it has every setting that changes them
+   */
+  private static String cacheName(String prefix, DistanceTransform transform, Configuration parameters) {
+    return prefix + "," + transform.getName() + "," + Weights.getName(parameters)
+        + (parameters.getBoolean(Constants.SAMMON, false) ? ",sammon" : "")
+        + (parameters.getBoolean(Constants.SPARSE_DISTANCES, false) ? ",sparse" : "")
+        + (TriangularMatrix.isTriangular(parameters) ? ",triangular" : "")
+        + (parameters.getBoolean(Constants.BYTE_DISTANCES, false) ? ",byte" : "");
+  }
+
   private static void generateVArrayInternal(
-      short[] distances, WeightsWrap1D weights, double[] v, int blockRowCount,
-      int rowStartIndex, int globalColCount) {
-    for (int i = 0; i < blockRowCount; ++i) {
+      ShortMatrixBlock block, Weights weights, DistanceTransform transform, double[] v, int startRow,
+      int endRow, int rowStartIndex, int globalColCount) {
+    if (block.isSparse()) {
+      generateSparseVArrayInternal(block, weights, transform, v, startRow, endRow, rowStartIndex);
+      return;
+    }
+    short[] distances = block.getData();
+    for (int i = startRow; i < endRow; ++i) {
       int globalRow = i + rowStartIndex;
       for (int globalCol = 0; globalCol < globalColCount; ++globalCol) {
         if (globalRow == globalCol) continue;
 
-        double origD = distances[i * globalColCount + globalCol] * INV_SHORT_MAX;
-        double weight = weights.getWeight(i, globalCol);
+        double origD = transform.getDistance(distances[i * globalColCount + globalCol]);
+        double weight = weights.getWeight(i, globalCol, origD);
 
         if (origD < 0 || weight == 0) {
           continue;
@@ -65,4 +215,62 @@ public class VArray {
       v[i] += 1;
     }
   }
+
+  /**
+   * Only the stored entries contribute to V, the missing entries are the same as the entries with
+   * zero weight
+   */
+  private static void generateSparseVArrayInternal(
+      ShortMatrixBlock block, Weights weights, DistanceTransform transform, double[] v, int startRow,
+      int endRow, int rowStartIndex) {
+    short[] distances = block.getData();
+    int[] rowOffsets = block.getRowOffsets();
+    int[] columns = block.getColumns();
+    for (int i = startRow; i < endRow; ++i) {
+      int globalRow = i + rowStartIndex;
+      for (int e = rowOffsets[i]; e < rowOffsets[i + 1]; ++e) {
+        int globalCol = columns[e];
+        if (globalRow == globalCol) continue;
+
+        double origD = transform.getDistance(distances[e]);
+        double weight = weights.getWeightAt(e, i, globalCol, origD);
+
+        if (origD < 0 || weight == 0) {
+          continue;
+        }
+        v[i] += weight;
+      }
+      v[i] += 1;
+    }
+  }
+
+  /**
+   * Add the weights of the rows [startRow, endRow) of a triangular block to the diagonal of all
+   * the rows, v is indexed by the global row
+   */
+  private static void generateTriangularVArrayInternal(
+      ShortMatrixBlock block, Weights weights, DistanceTransform transform, double[] v, int startRow, int endRow) {
+    short[] distances = block.getData();
+    int[] columns = block.getColumns();
+    for (int i = startRow; i < endRow; ++i) {
+      int globalRow = i + block.getStart();
+      int rowEntry = block.getRowEntry(i);
+      int rowEnd = block.getRowEntry(i + 1);
+      int firstColumn = block.getFirstColumn(i);
+      for (int e = rowEntry; e < rowEnd; ++e) {
+        int globalCol = columns != null ? columns[e] : firstColumn + e - rowEntry;
+        if (globalRow == globalCol) continue;
+
+        double origD = transform.getDistance(distances[e]);
+        double weight = weights.getWeightAt(e, i, globalCol, origD);
+
+        if (origD < 0 || weight == 0) {
+          continue;
+        }
+        v[globalRow] += weight;
+        v[globalCol] += weight;
+      }
+      v[globalRow] += 1;
+    }
+  }
 }
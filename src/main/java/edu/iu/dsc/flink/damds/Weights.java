@@ -0,0 +1,139 @@
+package edu.iu.dsc.flink.damds;
+
+import com.google.common.base.Strings;
+import edu.indiana.soic.spidal.common.BinaryReader2D;
+import edu.iu.dsc.flink.mm.BlockCache;
+import edu.iu.dsc.flink.mm.ShortMatrixBlock;
+import org.apache.flink.configuration.Configuration;
+
+import static edu.iu.dsc.flink.damds.DAMDSUtils.INV_SHORT_MAX;
+
+/**
+ * Weights of a distance block. There are three modes
+ *  constant: no weight file is given and every weight is 1
+ *  simple: the weight file is a vector w and the weight of (i, j) is w_i * w_j
+ *  matrix: the weight file is a short matrix of the same size as the distances
+ * Only the matrix mode carries a weight block, in the other modes the data of the block is null.
+ * With Sammon mapping the weights are divided by the distance, see {@link #getWeight(int, int, double)}.
+ * A weight block that goes with a sparse distance block keeps the weights of the stored entries
+ * only, in the same order, and the weights are looked up by the entry, see {@link #getWeightAt(int, int, int)}.
+ */
+public class Weights {
+  private static final double SAMMON_FACTOR = 0.001;
+
+  private final short[] weights;
+  private final double[] simpleWeights;
+  private final int globalColCount;
+  private final int rowStart;
+  private boolean isSammon = false;
+  private double sammonMinDistance;
+
+  public Weights(ShortMatrixBlock block, double[] simpleWeights) {
+    this.weights = block.getData();
+    this.simpleWeights = simpleWeights;
+    this.globalColCount = block.getMatrixCols();
+    this.rowStart = block.getStart();
+  }
+
+  public double getWeight(int localRow, int globalCol) {
+    return getWeightAt(localRow * globalColCount + globalCol, localRow, globalCol);
+  }
+
+  /**
+   * Weight of the entry of the distance block at (localRow, globalCol)
+   */
+  public double getWeightAt(int entry, int localRow, int globalCol) {
+    if (weights != null) {
+      return weights[entry] * INV_SHORT_MAX;
+    } else if (simpleWeights != null) {
+      return simpleWeights[localRow + rowStart] * simpleWeights[globalCol];
+    }
+    return 1.0;
+  }
+
+  /**
+   * Weight of (i, j) given the transformed distance, this is the Sammon weight
+   * w_ij / max(d_ij, 0.001 * average distance) if Sammon mapping is used.
+   */
+  public double getWeight(int localRow, int globalCol, double distance) {
+    double w = getWeight(localRow, globalCol);
+    return isSammon ? w / Math.max(distance, sammonMinDistance) : w;
+  }
+
+  public double getWeightAt(int entry, int localRow, int globalCol, double distance) {
+    double w = getWeightAt(entry, localRow, globalCol);
+    return isSammon ? w / Math.max(distance, sammonMinDistance) : w;
+  }
+
+  /**
+   * True if the weights are read from a weight matrix. Otherwise the weight of (i, j) is
+   * getPointWeight(i) * getPointWeight(j), also for the pairs that are not in a sparse block.
+   */
+  public boolean isMatrix() {
+    return weights != null;
+  }
+
+  public double getPointWeight(int globalRow) {
+    return simpleWeights != null ? simpleWeights[globalRow] : 1.0;
+  }
+
+  /**
+   * Factor of the weight of a pair with a missing (negative) distance, with Sammon mapping the
+   * weight is divided by the minimum distance
+   */
+  public double getMissingFactor() {
+    return isSammon ? 1.0 / sammonMinDistance : 1.0;
+  }
+
+  public void useSammonWeights(double avgDistance) {
+    isSammon = true;
+    sammonMinDistance = SAMMON_FACTOR * avgDistance;
+  }
+
+  public boolean isSammon() {
+    return isSammon;
+  }
+
+  public static boolean isConstant(String weightFile) {
+    return Strings.isNullOrEmpty(weightFile);
+  }
+
+  /**
+   * Name of the weights given by the parameters, part of the name of a cached block that depends on
+   * the weights
+   */
+  public static String getName(Configuration parameters) {
+    String weightFile = parameters.getString(Constants.WEIGHT_FILE, null);
+    if (isConstant(weightFile)) {
+      return "constant";
+    } else if (parameters.getBoolean(Constants.SIMPLE_WEIGHTS, false)) {
+      return "simple=" + weightFile;
+    }
+    return "matrix=" + weightFile + (parameters.getBoolean(Constants.BIG_INDIAN, true) ? ",big" : ",little");
+  }
+
+  /**
+   * Read the weight vector if the simple weights are used, otherwise return null. The vector is read
+   * once by a TaskManager and kept in the {@link BlockCache} whether CacheBlocks is set or not, so
+   * the functions opened in every superstep share it.
+   * @param parameters job parameters
+   */
+  public static double[] loadSimpleWeights(Configuration parameters) {
+    String weightFile = parameters.getString(Constants.WEIGHT_FILE, null);
+    if (isConstant(weightFile) || !parameters.getBoolean(Constants.SIMPLE_WEIGHTS, false)) {
+      return null;
+    }
+    int globalCols = parameters.getInteger(Constants.GLOBAL_COLS, 0);
+    String name = "simple," + globalCols;
+    BlockCache.beginRun(parameters.getString(Constants.RUN_ID, null));
+    // the tasks of a TaskManager open at the same time, only one of them reads the file
+    synchronized (Weights.class) {
+      double[] simpleWeights = BlockCache.get(weightFile, -1, name);
+      if (simpleWeights == null) {
+        simpleWeights = BinaryReader2D.readSimpleFile(weightFile, globalCols);
+        BlockCache.put(weightFile, -1, name, simpleWeights);
+      }
+      return simpleWeights;
+    }
+  }
+}
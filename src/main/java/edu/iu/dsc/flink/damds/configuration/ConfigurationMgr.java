@@ -28,11 +28,29 @@ public class ConfigurationMgr {
     configuration.setInteger(Constants.TARGET_DIMENSION, config.targetDimension);
     configuration.setDouble(Constants.ALPHA, config.alpha);
     configuration.setDouble(Constants.THRESHOLD, config.threshold);
+    configuration.setInteger(Constants.MAX_STRESS_LOOPS, config.maxStressLoops);
+    configuration.setInteger(Constants.MAX_TEMP_LOOPS, config.maxtemploops);
     configuration.setDouble(Constants.TMIN_FACTOR, config.tMinFactor);
     configuration.setDouble(Constants.CG_THRESHOLD, config.cgErrorThreshold);
     configuration.setBoolean(Constants.ExactCG, config.exactCgIter);
     configuration.setBoolean(Constants.BIG_INDIAN, config.isBigEndian);
     configuration.setString(Constants.WEIGHT_FILE, config.weightMatrixFile);
+    configuration.setString(Constants.DISTANCE_FILE, config.distanceMatrixFile);
+    configuration.setBoolean(Constants.CACHE_BLOCKS, config.cacheBlocks);
+    configuration.setBoolean(Constants.SIMPLE_WEIGHTS, config.isSimpleWeights);
+    configuration.setBoolean(Constants.SAMMON, config.isSammon);
+    configuration.setInteger(Constants.THREAD_COUNT, config.threadCount);
+    configuration.setBoolean(Constants.NODE_AGGREGATION, config.nodeAggregation);
+    configuration.setInteger(Constants.NODE_AGGREGATION_SIZE, config.nodeAggregationSize);
+    configuration.setBoolean(Constants.JACOBI_PRECONDITIONER, config.jacobiPreconditioner);
+    configuration.setBoolean(Constants.TRIANGULAR_MATRIX, config.triangularMatrix);
+    configuration.setBoolean(Constants.SPARSE_DISTANCES, config.sparseDistances);
+    configuration.setBoolean(Constants.BYTE_DISTANCES, config.byteDistances);
+    configuration.setString(Constants.RUN_ID, config.runId);
+    configuration.setDouble(Constants.DISTANCE_TRANSFORM, config.distanceTransform);
+    if (config.transformationFunction != null) {
+      configuration.setString(Constants.TRANSFORMATION_FUNCTION, config.transformationFunction);
+    }
     return configuration;
   }
 }
@@ -1,9 +1,13 @@
 package edu.iu.dsc.flink.damds.configuration.section;
 
+import org.apache.flink.configuration.ConfigConstants;
+import org.apache.flink.configuration.GlobalConfiguration;
+
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Properties;
+import java.util.UUID;
 import java.util.stream.IntStream;
 
 public class DAMDSSection {
@@ -16,6 +20,7 @@ public class DAMDSSection {
       labelFile = getProperty(p, "LabelFile", "labels.txt");
       initialPointsFile = getProperty(p, "InitialPointsFile", "init.txt");
       pointsFile = getProperty(p, "PointsFile", "points.txt");
+      binaryPointsFile = getProperty(p, "BinaryPointsFile", "");
       timingFile = getProperty(p, "TimingFile", "timings.txt");
       summaryFile = getProperty(p, "SummaryFile", "summary.txt");
 
@@ -50,6 +55,20 @@ public class DAMDSSection {
       maxStressLoops = Integer.parseInt(getProperty(p, "MaxStressLoops", "0"));
       exactCgIter = Boolean.parseBoolean(getProperty(p, "ExactCGIter", "false"));
       isGenData = Boolean.parseBoolean(getProperty(p, "GenerateData", "false"));
+      singleJob = Boolean.parseBoolean(getProperty(p, "SingleJob", "false"));
+      cacheBlocks = Boolean.parseBoolean(getProperty(p, "CacheBlocks", "false"));
+      threadCount = Integer.parseInt(getProperty(p, "ThreadCount", "1"));
+      nodeAggregation = Boolean.parseBoolean(getProperty(p, "NodeAggregation", "false"));
+      nodeAggregationSize = Integer.parseInt(getProperty(p, "NodeAggregationSize",
+          String.valueOf(GlobalConfiguration.getInteger(ConfigConstants.TASK_MANAGER_NUM_TASK_SLOTS, 1))));
+      jacobiPreconditioner = Boolean.parseBoolean(getProperty(p, "JacobiPreconditioner", "false"));
+      warmStartCG = Boolean.parseBoolean(getProperty(p, "WarmStartCG", "false"));
+      sparseFiles = Boolean.parseBoolean(getProperty(p, "SparseFiles", "false"));
+      // the blocks of sparse files are sparse
+      sparseDistances = sparseFiles || Boolean.parseBoolean(getProperty(p, "SparseDistances", "false"));
+      triangularMatrix = Boolean.parseBoolean(getProperty(p, "TriangularMatrix", "false"));
+      byteDistances = Boolean.parseBoolean(getProperty(p, "ByteDistances", "false"));
+      runId = UUID.randomUUID().toString();
 
     } catch (IOException e) {
       throw new RuntimeException("IO exception occurred while reading configuration properties file", e);
@@ -77,6 +96,8 @@ public class DAMDSSection {
   public String labelFile;
   public String initialPointsFile;
   public String pointsFile;
+  // points written between the stress iterations, defaults to the points file with .bin appended
+  public String binaryPointsFile;
   public String timingFile;
   public String summaryFile;
 
@@ -103,6 +124,31 @@ public class DAMDSSection {
   public int maxStressLoops;
   public boolean exactCgIter;
   public boolean isGenData;
+  public boolean singleJob;
+  public boolean cacheBlocks;
+  // threads used by a task to process its block
+  public int threadCount;
+  // combine the partial results of groups of blocks before reducing them
+  public boolean nodeAggregation;
+  // blocks in a group, defaults to the slots of a TaskManager
+  public int nodeAggregationSize;
+  // precondition the cg loop with the diagonal of V
+  public boolean jacobiPreconditioner;
+  // start the cg loop of the single job from the previous stress iteration
+  public boolean warmStartCG;
+  // keep only the non missing distances of the blocks in memory. The distance and weight files
+  // are still dense and read in full, so the disk use and the I/O stay O(N^2). The results are the
+  // same as a dense run, the missing pairs keep their weights in V
+  public boolean sparseDistances;
+  // the distance and weight files are sparse files, see SparseMatrixFile. Only the stored entries
+  // are kept on disk and read, the files are written from the dense files by MatrixFileGenerator
+  public boolean sparseFiles;
+  // the distance and weight files keep the upper triangle of the matrices
+  public boolean triangularMatrix;
+  // the distance file keeps a byte per distance, the weight file is not changed
+  public boolean byteDistances;
+  // identifies the run, not a property. The TaskManagers only reuse the cached blocks within a run
+  public String runId;
 
   private String getPadding(int count, String prefix){
     StringBuilder sb = new StringBuilder(prefix);
@@ -116,6 +162,7 @@ public class DAMDSSection {
         "Label Data File",
         "Initial Points File",
         "Points File",
+        "Binary Points File",
         "Timing File",
         "Summary File",
         "Number Data Points",
@@ -138,13 +185,25 @@ public class DAMDSSection {
         "Is Simple Weights",
          "Max stress loops",
          "Exact cg iterations",
-          "Generate data"};
+          "Generate data",
+          "Single job",
+          "Cache blocks",
+          "Thread count",
+          "Node aggregation",
+          "Node aggregation size",
+          "Jacobi preconditioner",
+          "Warm start cg",
+          "Sparse distances",
+          "Sparse files",
+          "Triangular matrix",
+          "Byte distances"};
     Object[] args =
         new Object[]{distanceMatrixFile,
             weightMatrixFile,
             labelFile,
             initialPointsFile,
             pointsFile,
+            binaryPointsFile,
             timingFile,
             summaryFile,
             numberDataPoints,
@@ -162,7 +221,9 @@ public class DAMDSSection {
             transformationFunction,
             weightTransformationFunction,
             repetitions, maxtemploops, isSimpleWeights,
-            maxStressLoops, exactCgIter, isGenData};
+            maxStressLoops, exactCgIter, isGenData, singleJob, cacheBlocks, threadCount,
+            nodeAggregation, nodeAggregationSize, jacobiPreconditioner, warmStartCG, sparseDistances, sparseFiles,
+            triangularMatrix, byteDistances};
 
     java.util.Optional<Integer> maxLength =
         Arrays.stream(params).map(String::length).reduce(Math::max);
@@ -8,6 +8,10 @@ public class Iteration {
   public int stressItr;
   public int tItr;
   public int cgCount;
+  // stress iterations done at the current temperature, used by the single job driver
+  public int stressLoop;
+  // set by the single job driver when the annealing is complete
+  public boolean done;
 
   public Iteration() {
   }
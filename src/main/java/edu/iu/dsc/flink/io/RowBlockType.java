@@ -18,12 +18,12 @@ public class RowBlockType extends TypeInformation<RowBlock> {
 
     @Override
     public int getArity() {
-        return 19;
+        return 1;
     }
 
     @Override
     public int getTotalFields() {
-        return 19;
+        return 1;
     }
 
     @Override
@@ -44,12 +44,12 @@ public class RowBlockType extends TypeInformation<RowBlock> {
 
     @Override
     public String toString() {
-        return null;
+        return "RowBlockType";
     }
 
     @Override
     public boolean equals(Object obj) {
-        return obj instanceof RowBlock && obj.getClass() == RowBlock.class;
+        return obj instanceof RowBlockType;
     }
 
     @Override
@@ -59,6 +59,6 @@ public class RowBlockType extends TypeInformation<RowBlock> {
 
     @Override
     public boolean canEqual(Object obj) {
-        return obj instanceof RowBlock;
+        return obj instanceof RowBlockType;
     }
 }
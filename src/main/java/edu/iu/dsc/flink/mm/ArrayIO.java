@@ -0,0 +1,153 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bulk serialization of primitive arrays. The arrays are converted to bytes in a buffer and
+ * written with a single call, so the view copies them in to its memory segments in bulk instead
+ * of element by element. An array is written as its length, -1 for null, followed by the values in
+ * big endian order.
+ */
+final class ArrayIO {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<ByteBuffer> BUFFER = new ThreadLocal<ByteBuffer>() {
+    @Override
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.allocate(BUFFER_SIZE);
+    }
+  };
+
+  private ArrayIO() {
+  }
+
+  static void writeShorts(short[] data, DataOutputView target) throws IOException {
+    if (data == null) {
+      target.writeInt(-1);
+      return;
+    }
+    target.writeInt(data.length);
+    ByteBuffer buffer = BUFFER.get();
+    int index = 0;
+    while (index < data.length) {
+      int count = Math.min(data.length - index, BUFFER_SIZE / Short.BYTES);
+      buffer.clear();
+      buffer.asShortBuffer().put(data, index, count);
+      target.write(buffer.array(), 0, count * Short.BYTES);
+      index += count;
+    }
+  }
+
+  /**
+   * Read a short array, the reuse array is filled if it has the same length
+   */
+  static short[] readShorts(short[] reuse, DataInputView source) throws IOException {
+    int length = source.readInt();
+    if (length < 0) {
+      return null;
+    }
+    short[] data = reuse != null && reuse.length == length ? reuse : new short[length];
+    ByteBuffer buffer = BUFFER.get();
+    int index = 0;
+    while (index < length) {
+      int count = Math.min(length - index, BUFFER_SIZE / Short.BYTES);
+      source.readFully(buffer.array(), 0, count * Short.BYTES);
+      buffer.clear();
+      buffer.asShortBuffer().get(data, index, count);
+      index += count;
+    }
+    return data;
+  }
+
+  static void writeInts(int[] data, DataOutputView target) throws IOException {
+    if (data == null) {
+      target.writeInt(-1);
+      return;
+    }
+    target.writeInt(data.length);
+    ByteBuffer buffer = BUFFER.get();
+    int index = 0;
+    while (index < data.length) {
+      int count = Math.min(data.length - index, BUFFER_SIZE / Integer.BYTES);
+      buffer.clear();
+      buffer.asIntBuffer().put(data, index, count);
+      target.write(buffer.array(), 0, count * Integer.BYTES);
+      index += count;
+    }
+  }
+
+  /**
+   * Read an int array, the reuse array is filled if it has the same length
+   */
+  static int[] readInts(int[] reuse, DataInputView source) throws IOException {
+    int length = source.readInt();
+    if (length < 0) {
+      return null;
+    }
+    int[] data = reuse != null && reuse.length == length ? reuse : new int[length];
+    ByteBuffer buffer = BUFFER.get();
+    int index = 0;
+    while (index < length) {
+      int count = Math.min(length - index, BUFFER_SIZE / Integer.BYTES);
+      source.readFully(buffer.array(), 0, count * Integer.BYTES);
+      buffer.clear();
+      buffer.asIntBuffer().get(data, index, count);
+      index += count;
+    }
+    return data;
+  }
+
+  static void writeDoubles(double[] data, DataOutputView target) throws IOException {
+    if (data == null) {
+      target.writeInt(-1);
+      return;
+    }
+    target.writeInt(data.length);
+    ByteBuffer buffer = BUFFER.get();
+    int index = 0;
+    while (index < data.length) {
+      int count = Math.min(data.length - index, BUFFER_SIZE / Double.BYTES);
+      buffer.clear();
+      buffer.asDoubleBuffer().put(data, index, count);
+      target.write(buffer.array(), 0, count * Double.BYTES);
+      index += count;
+    }
+  }
+
+  /**
+   * Read a double array, the reuse array is filled if it has the same length
+   */
+  static double[] readDoubles(double[] reuse, DataInputView source) throws IOException {
+    int length = source.readInt();
+    if (length < 0) {
+      return null;
+    }
+    double[] data = reuse != null && reuse.length == length ? reuse : new double[length];
+    ByteBuffer buffer = BUFFER.get();
+    int index = 0;
+    while (index < length) {
+      int count = Math.min(length - index, BUFFER_SIZE / Double.BYTES);
+      source.readFully(buffer.array(), 0, count * Double.BYTES);
+      buffer.clear();
+      buffer.asDoubleBuffer().get(data, index, count);
+      index += count;
+    }
+    return data;
+  }
+
+  /**
+   * Copy a serialized array without decoding it
+   * @param elementSize size of an element in bytes
+   */
+  static void copy(DataInputView source, DataOutputView target, int elementSize) throws IOException {
+    int length = source.readInt();
+    target.writeInt(length);
+    if (length > 0) {
+      target.write(source, length * elementSize);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.io.FileInputFormat;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.core.fs.FileInputSplit;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the row blocks of a point matrix written by {@link BinaryPointOutputFormat}. Every file of
+ * the output is a split, so the files are read in parallel and each task gets the row blocks of
+ * its files. Local files are read through a memory map, others through the input stream.
+ */
+public class BinaryPointInputFormat extends FileInputFormat<Matrix> implements ResultTypeQueryable<Matrix> {
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+  protected int rows;
+  protected int cols;
+  protected boolean isBigEndian = true;
+
+  private transient ByteBuffer mapped;
+  private transient long position;
+  private transient long length;
+
+  public BinaryPointInputFormat() {
+    this.unsplittable = true;
+  }
+
+  @Override
+  public boolean reachedEnd() throws IOException {
+    return position >= length;
+  }
+
+  @Override
+  public void open(FileInputSplit fileSplit) throws IOException {
+    super.open(fileSplit);
+    position = 0;
+    length = fileSplit.getLength();
+    mapped = null;
+    String scheme = fileSplit.getPath().toUri().getScheme();
+    if (length > 0 && (scheme == null || scheme.equals("file"))) {
+      try (FileChannel channel = FileChannel.open(Paths.get(fileSplit.getPath().toUri().getPath()),
+          StandardOpenOption.READ)) {
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, fileSplit.getStart(), length);
+        mapped.order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    mapped = null;
+  }
+
+  @Override
+  public Matrix nextRecord(Matrix block) throws IOException {
+    ByteBuffer header = mapped;
+    if (header == null) {
+      byte[] bytes = new byte[BinaryPointOutputFormat.HEADER_SIZE];
+      readFully(this.stream, bytes, bytes.length);
+      header = ByteBuffer.wrap(bytes).order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+    int globalRows = header.getInt();
+    int blockCols = header.getInt();
+    int startRow = header.getInt();
+    int blockRows = header.getInt();
+    if ((rows > 0 && globalRows != rows) || (cols > 0 && blockCols != cols)) {
+      throw new IOException("Expected a " + rows + "x" + cols + " point matrix, found "
+          + globalRows + "x" + blockCols + " in " + filePath);
+    }
+
+    double[] data = new double[blockRows * blockCols];
+    if (mapped != null) {
+      mapped.asDoubleBuffer().get(data);
+      mapped.position(mapped.position() + data.length * Double.BYTES);
+    } else {
+      readStream(this.stream, data, isBigEndian);
+    }
+    position += BinaryPointOutputFormat.HEADER_SIZE + (long) data.length * Double.BYTES;
+
+    block.setCols(blockCols);
+    block.setRows(blockRows);
+    block.setStartIndex(startRow);
+    block.setColumnMajor(false);
+    block.setData(data);
+    block.setState(new MatrixState());
+    return block;
+  }
+
+  private static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      int r = in.read(bytes, read, length - read);
+      if (r < 0) {
+        throw new EOFException("Unexpected end of stream");
+      }
+      read += r;
+    }
+  }
+
+  /**
+   * Read doubles from a stream, the bytes are read in to a buffer and decoded in bulk.
+   */
+  public static void readStream(InputStream in, double[] to, boolean isBigEndian) throws IOException {
+    byte[] bytes = new byte[Math.min(READ_BUFFER_SIZE, Math.max(to.length, 1) * Double.BYTES)];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    int index = 0;
+    while (index < to.length) {
+      int count = Math.min(to.length - index, bytes.length / Double.BYTES);
+      readFully(in, bytes, count * Double.BYTES);
+      buffer.clear();
+      buffer.asDoubleBuffer().get(to, index, count);
+      index += count;
+    }
+  }
+
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * Number of rows of the whole matrix, checked against the header of the blocks
+   */
+  public void setRows(int rows) {
+    this.rows = rows;
+  }
+
+  public int getCols() {
+    return cols;
+  }
+
+  public void setCols(int cols) {
+    this.cols = cols;
+  }
+
+  public boolean isBigEndian() {
+    return isBigEndian;
+  }
+
+  public void setBigEndian(boolean bigEndian) {
+    isBigEndian = bigEndian;
+  }
+
+  @Override
+  public TypeInformation<Matrix> getProducedType() {
+    return MatrixTypes.MATRIX;
+  }
+}
@@ -0,0 +1,103 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.io.FileOutputFormat;
+import org.apache.flink.core.fs.Path;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Writes row blocks of a point matrix. Every block is written as a header followed by the rows of
+ * the block as doubles in row major order. The header is
+ *  int global rows (N), int cols (d), int start row, int block rows
+ * A task writes its blocks to its own file in the output directory, so the blocks are written in
+ * parallel by the tasks owning them. Read them back with {@link BinaryPointInputFormat}.
+ */
+public class BinaryPointOutputFormat extends FileOutputFormat<Matrix> {
+  private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+  public static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+  private boolean isBigEndian = true;
+
+  private int globalRows;
+
+  private transient byte[] bytes;
+
+  private transient ByteBuffer buffer;
+
+  public BinaryPointOutputFormat() {
+    setOutputDirectoryMode(OutputDirectoryMode.ALWAYS);
+  }
+
+  public BinaryPointOutputFormat(Path outputPath) {
+    super(outputPath);
+    setOutputDirectoryMode(OutputDirectoryMode.ALWAYS);
+  }
+
+  @Override
+  public void open(int taskNumber, int numTasks) throws IOException {
+    super.open(taskNumber, numTasks);
+    bytes = new byte[WRITE_BUFFER_SIZE];
+    buffer = ByteBuffer.wrap(bytes).order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Override
+  public void writeRecord(Matrix matrix) throws IOException {
+    double[] data = matrix.getData();
+    if (matrix.isColumnMajor()) {
+      data = toRowMajor(matrix);
+    }
+    buffer.clear();
+    buffer.putInt(globalRows > 0 ? globalRows : matrix.getRows());
+    buffer.putInt(matrix.getCols());
+    buffer.putInt(matrix.getStartIndex());
+    buffer.putInt(matrix.getRows());
+    this.stream.write(bytes, 0, HEADER_SIZE);
+
+    buffer.clear();
+    DoubleBuffer doubles = buffer.asDoubleBuffer();
+    int index = 0;
+    while (index < data.length) {
+      int count = Math.min(data.length - index, WRITE_BUFFER_SIZE / Double.BYTES);
+      doubles.clear();
+      doubles.put(data, index, count);
+      this.stream.write(bytes, 0, count * Double.BYTES);
+      index += count;
+    }
+  }
+
+  private static double[] toRowMajor(Matrix matrix) {
+    int rows = matrix.getRows();
+    int cols = matrix.getCols();
+    double[] data = matrix.getData();
+    double[] rowMajor = new double[rows * cols];
+    for (int i = 0; i < rows; i++) {
+      for (int j = 0; j < cols; j++) {
+        rowMajor[i * cols + j] = data[i + rows * j];
+      }
+    }
+    return rowMajor;
+  }
+
+  public boolean isBigEndian() {
+    return isBigEndian;
+  }
+
+  public void setBigEndian(boolean bigEndian) {
+    isBigEndian = bigEndian;
+  }
+
+  public int getGlobalRows() {
+    return globalRows;
+  }
+
+  /**
+   * Number of rows of the whole matrix, if not set the rows of each block are written as N
+   */
+  public void setGlobalRows(int globalRows) {
+    this.globalRows = globalRows;
+  }
+}
@@ -0,0 +1,69 @@
+package edu.iu.dsc.flink.mm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TaskManager resident cache for matrix blocks. A block is keyed by the file it was read from, the
+ * split index and the name of the transformation applied to it after reading, so the same file
+ * can be cached in different forms.
+ *
+ * The cache is held in static memory, so it is shared by all the slots of a TaskManager. In order
+ * for the blocks to survive across jobs the classes must be loaded by the TaskManager class loader,
+ * i.e. the job jar has to be copied to the lib folder of Flink.
+ *
+ * The blocks are only kept for a run, the jobs of a run share the run id given to
+ * {@link #beginRun(String)}. The blocks of an earlier run are dropped when a new run begins, the
+ * files may have changed since and the cache would otherwise keep growing with every run.
+ */
+public final class BlockCache {
+  private static final Map<String, Object> CACHE = new ConcurrentHashMap<String, Object>();
+  // the run the cached blocks belong to
+  private static String run;
+
+  private BlockCache() {
+  }
+
+  /**
+   * Start using the cache for a run, the blocks of any other run are removed
+   * @param runId the run, null keeps the blocks
+   */
+  public static synchronized void beginRun(String runId) {
+    if (runId != null && !runId.equals(run)) {
+      CACHE.clear();
+      run = runId;
+    }
+  }
+
+  public static String key(String file, int split, String transform) {
+    return file + "#" + split + "#" + transform;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <T> T get(String file, int split, String transform) {
+    return (T) CACHE.get(key(file, split, transform));
+  }
+
+  public static void put(String file, int split, String transform, Object block) {
+    CACHE.put(key(file, split, transform), block);
+  }
+
+  /**
+   * Remove all the blocks of a file
+   * @param file the file
+   */
+  public static void invalidate(String file) {
+    String prefix = file + "#";
+    Iterator<String> it = CACHE.keySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().startsWith(prefix)) {
+        it.remove();
+      }
+    }
+  }
+
+  public static void clear() {
+    CACHE.clear();
+  }
+}
@@ -0,0 +1,15 @@
+package edu.iu.dsc.flink.mm;
+
+import java.io.Serializable;
+
+/**
+ * A transformation applied to a block by the input format right after it is read.
+ */
+public interface BlockTransform<T extends MatrixBlock> extends Serializable {
+  /**
+   * Name of the transformation, used as part of the cache key of the transformed block
+   */
+  String getName();
+
+  void transform(T block);
+}
@@ -0,0 +1,546 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.core.fs.BlockLocation;
+import org.apache.flink.core.fs.FSDataInputStream;
+import org.apache.flink.core.fs.FileInputSplit;
+import org.apache.flink.core.fs.FileStatus;
+import org.apache.flink.core.fs.FileSystem;
+import org.apache.flink.core.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the distance and weight matrices together. The splits are row blocks of the distance file
+ * and the same rows are read from the weight file, so each record is an aligned pair of blocks
+ * (distances, weights) and no join is needed. The hosts of a split are the hosts that keep the
+ * row range of both the files, or the hosts of the distance file if there are none.
+ *
+ * If no weight file is set only the distances are read and the weight block carries the block
+ * layout with null data.
+ *
+ * With an upper triangular distance file the weight file is also upper triangular, see
+ * {@link MatrixInputFormat}.
+ *
+ * If sparse is set the missing (negative) distances are dropped while reading and the distance
+ * block is kept in the compressed sparse row format, see {@link ShortMatrixBlock}. The weight block
+ * keeps the weights of the stored distances only, in the same order. A missing distance with a non
+ * zero weight is stored, the kernels skip it except for V where it has the element -w_ij as in a
+ * dense block. The split is read a chunk of rows at a time, so the dense rows of the split are never
+ * held in memory together. The files are still dense, so the file size and the bytes read are the
+ * same as for a dense run, only the memory and the work of the kernels go down.
+ *
+ * If sparse file is set the distance and weight files are sparse files, see {@link SparseMatrixFile}.
+ * Only the stored entries are read, so the file size and the bytes read go down as well. The
+ * splits are ranges of the row offsets of the file and are balanced by the number of stored
+ * entries. The blocks are the same as the sparse blocks read from the dense files. A sparse file
+ * keeps shorts and is read through the input stream.
+ *
+ * If byte encoded is set the distance file keeps a byte per distance, see
+ * {@link ShortMatrixInputFormat}. The weight file keeps shorts, so the rows of a split are at a
+ * different offset of the weight file.
+ *
+ * The weight file has its own byte order, set with {@link #setWeightBigEndian(boolean)}.
+ */
+public class DistanceWeightInputFormat extends MatrixInputFormat<Tuple2<ShortMatrixBlock, ShortMatrixBlock>>
+    implements ResultTypeQueryable<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> {
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(DistanceWeightInputFormat.class);
+
+  // elements of a chunk of rows read for a sparse block
+  private static final int SPARSE_CHUNK_SIZE = 1 << 20;
+
+  private String weightFile;
+  // byte order of the weight file, the distance file uses isBigEndian
+  private boolean weightBigEndian = true;
+  // transformation applied to the distance block after reading
+  private BlockTransform<ShortMatrixBlock> transform;
+  // keep the blocks in the TaskManager cache
+  private boolean cached = false;
+  // the run of the cached blocks, see BlockCache
+  private String cacheRun;
+  // read local files through a memory map instead of the input stream
+  private boolean memoryMapped = false;
+  // drop the missing distances and keep the blocks in the sparse format
+  private boolean sparse = false;
+  // the distance file keeps a byte per distance
+  private boolean byteEncoded = false;
+  // the distance and weight files are sparse files
+  private boolean sparseFile = false;
+
+  public DistanceWeightInputFormat() {
+    this.byteSize = Short.BYTES;
+  }
+
+  @Override
+  public FileInputSplit[] createInputSplits(int minNumSplits) throws IOException {
+    if (sparseFile && !generateData) {
+      return createSparseFileSplits(minNumSplits);
+    }
+    final FileSystem fs = this.filePath.getFileSystem();
+    final FileStatus file = fs.getFileStatus(this.filePath);
+    final boolean hasWeights = weightFile != null && !generateData;
+    final FileSystem weightFs = hasWeights ? new Path(weightFile).getFileSystem() : null;
+    final FileStatus weight = hasWeights ? weightFs.getFileStatus(new Path(weightFile)) : null;
+
+    FileInputSplit[] splits = new FileInputSplit[minNumSplits];
+    int[] rows = splitRows(minNumSplits);
+
+    long start = 0, length;
+    for (int i = 0; i < minNumSplits; ++i) {
+      length = rowOffset(rows[i + 1]) - start;
+      Set<String> hosts = hosts(fs.getFileBlockLocations(file, start, length));
+      if (weight != null) {
+        Set<String> weightHosts = hosts(weightFs.getFileBlockLocations(weight, weightOffset(start),
+            weightOffset(length)));
+        Set<String> common = new HashSet<>(hosts);
+        common.retainAll(weightHosts);
+        if (!common.isEmpty()) {
+          hosts = common;
+        }
+      }
+      LOG.info(String.format("Block start %d length %d hosts %s", start, length, hosts));
+      splits[i] = new FileInputSplit(i, this.filePath, start, length, hosts.toArray(new String[hosts.size()]));
+      start += length;
+    }
+
+    numSplits = minNumSplits;
+    return splits;
+  }
+
+  /**
+   * The splits of a sparse file, a split is the range of the row offsets of its rows. The hosts of
+   * a split are the hosts that keep the stored entries of its rows in both the files.
+   */
+  private FileInputSplit[] createSparseFileSplits(int minNumSplits) throws IOException {
+    if (byteEncoded) {
+      throw new IOException("A sparse file keeps shorts, it can not be byte encoded");
+    }
+    final FileSystem fs = this.filePath.getFileSystem();
+    final FileStatus file = fs.getFileStatus(this.filePath);
+    final FileSystem weightFs = weightFile != null ? new Path(weightFile).getFileSystem() : null;
+    final FileStatus weight = weightFile != null ? weightFs.getFileStatus(new Path(weightFile)) : null;
+
+    long[] offsets = new long[globalRowCount + 1];
+    try (FSDataInputStream in = fs.open(this.filePath)) {
+      SparseMatrixFile.readLongs(in, offsets, isBigEndian);
+    }
+    long entries = offsets[globalRowCount];
+    long values = SparseMatrixFile.valuesPosition(globalRowCount, entries);
+
+    FileInputSplit[] splits = new FileInputSplit[minNumSplits];
+    int startRow = 0;
+    for (int i = 0; i < minNumSplits; ++i) {
+      int endRow = startRow;
+      long end = entries * (i + 1) / minNumSplits;
+      while (endRow < globalRowCount && (i == minNumSplits - 1 || offsets[endRow] < end)) {
+        endRow++;
+      }
+      long first = offsets[startRow];
+      long count = offsets[endRow] - first;
+      Set<String> hosts = hosts(fs.getFileBlockLocations(file, values + first * Short.BYTES, count * Short.BYTES));
+      if (weight != null) {
+        Set<String> weightHosts = hosts(weightFs.getFileBlockLocations(weight, first * Short.BYTES,
+            count * Short.BYTES));
+        Set<String> common = new HashSet<>(hosts);
+        common.retainAll(weightHosts);
+        if (!common.isEmpty()) {
+          hosts = common;
+        }
+      }
+      long start = SparseMatrixFile.rowOffsetPosition(startRow);
+      long length = SparseMatrixFile.rowOffsetPosition(endRow) - start;
+      LOG.info(String.format("Block rows %d to %d entries %d hosts %s", startRow, endRow, count, hosts));
+      splits[i] = new FileInputSplit(i, this.filePath, start, length, hosts.toArray(new String[hosts.size()]));
+      startRow = endRow;
+    }
+
+    numSplits = minNumSplits;
+    return splits;
+  }
+
+  private static Set<String> hosts(BlockLocation[] blocks) throws IOException {
+    Set<String> hosts = new HashSet<>();
+    for (BlockLocation b : blocks) {
+      for (String host : b.getHosts()) {
+        hosts.add(host);
+      }
+    }
+    return hosts;
+  }
+
+  @Override
+  public Tuple2<ShortMatrixBlock, ShortMatrixBlock> nextRecord(
+      Tuple2<ShortMatrixBlock, ShortMatrixBlock> reuse) throws IOException {
+    boolean readSparseFile = sparseFile && !generateData;
+    int start = readSparseFile ? (int) (getSplitStart() / Long.BYTES) : rowAt(getSplitStart());
+    int rows = readSparseFile ? (int) (getSplitLength() / Long.BYTES)
+        : rowAt(getSplitStart() + getSplitLength()) - start;
+    int splitIndex = this.currentSplit.getSplitNumber();
+    String transformName = (transform != null ? transform.getName() : "none") + "," + layoutName();
+    isRead = true;
+    if (cached) {
+      BlockCache.beginRun(cacheRun);
+    }
+
+    if (sparse || readSparseFile) {
+      return nextSparseRecord(splitIndex, transformName + ",sparse", start, rows);
+    }
+
+    ShortMatrixBlock distances = null;
+    ShortMatrixBlock weights = null;
+    if (cached) {
+      distances = cachedBlock(filePath.toString(), splitIndex, transformName, start, rows);
+      weights = weightFile != null ? cachedBlock(weightFile, splitIndex, weightLayoutName(), start, rows) : null;
+    }
+
+    if (distances == null) {
+      distances = newBlock(splitIndex, start, rows, true);
+      if (!generateData) {
+        if (memoryMapped && ShortMatrixInputFormat.isLocalFile(filePath)) {
+          ShortMatrixInputFormat.readMappedFile(Paths.get(filePath.toUri().getPath()), getSplitStart(),
+              distances.getData(), isBigEndian, byteEncoded);
+        } else {
+          ShortMatrixInputFormat.readStream(this.stream, distances.getData(), isBigEndian, byteEncoded);
+        }
+      } else {
+        ShortMatrixInputFormat.genData(distances.getData().length, distances.getData());
+      }
+      if (transform != null) {
+        transform.transform(distances);
+      }
+      if (cached) {
+        BlockCache.put(filePath.toString(), splitIndex, transformName, distances);
+      }
+    }
+
+    if (weightFile == null) {
+      weights = newBlock(splitIndex, start, rows, false);
+    } else if (weights == null) {
+      weights = newBlock(splitIndex, start, rows, true);
+      if (!generateData) {
+        readWeights(weights.getData());
+      } else {
+        ShortMatrixInputFormat.genData(weights.getData().length, weights.getData());
+      }
+      if (cached) {
+        BlockCache.put(weightFile, splitIndex, weightLayoutName(), weights);
+      }
+    }
+    return new Tuple2<ShortMatrixBlock, ShortMatrixBlock>(distances, weights);
+  }
+
+  private Tuple2<ShortMatrixBlock, ShortMatrixBlock> nextSparseRecord(
+      int splitIndex, String transformName, int start, int rows) throws IOException {
+    ShortMatrixBlock distances = null;
+    ShortMatrixBlock weights = null;
+    if (cached) {
+      distances = cachedBlock(filePath.toString(), splitIndex, transformName, start, rows);
+      weights = weightFile != null ? cachedBlock(weightFile, splitIndex, sparseWeightName(), start, rows) : null;
+    }
+
+    if (distances == null || (weightFile != null && weights == null)) {
+      distances = newBlock(splitIndex, start, rows, false);
+      weights = weightFile != null ? newBlock(splitIndex, start, rows, false) : null;
+      if (sparseFile && !generateData) {
+        readSparseFile(distances, weights);
+      } else {
+        readSparse(distances, weights);
+      }
+      if (transform != null) {
+        transform.transform(distances);
+      }
+      if (cached) {
+        BlockCache.put(filePath.toString(), splitIndex, transformName, distances);
+        if (weights != null) {
+          BlockCache.put(weightFile, splitIndex, sparseWeightName(), weights);
+        }
+      }
+    }
+
+    if (weightFile == null) {
+      weights = newBlock(splitIndex, start, rows, false);
+    }
+    return new Tuple2<ShortMatrixBlock, ShortMatrixBlock>(distances, weights);
+  }
+
+  /**
+   * Read the rows of the split a chunk at a time and keep the non negative distances, along with
+   * their weights if a weight block is given. A missing distance with a non zero weight is kept as
+   * well, it has an element in V
+   */
+  private void readSparse(ShortMatrixBlock distances, ShortMatrixBlock weights) throws IOException {
+    int rows = distances.getBlockRows();
+    int cols = globalColumnCount;
+    int chunkRows = Math.max(1, SPARSE_CHUNK_SIZE / cols);
+    short[] d = new short[distances.getRowEntry(Math.min(chunkRows, rows))];
+    short[] w = weights != null ? new short[d.length] : null;
+
+    int[] rowOffsets = new int[rows + 1];
+    int[] columns = new int[Math.max(16, d.length / 4)];
+    short[] data = new short[columns.length];
+    short[] weightData = weights != null ? new short[columns.length] : null;
+    int count = 0;
+
+    Path weightPath = weights != null && !generateData ? new Path(weightFile) : null;
+    boolean weightMapped = weightPath != null && memoryMapped && ShortMatrixInputFormat.isLocalFile(weightPath);
+    FSDataInputStream weightStream = null;
+    try {
+      if (weightPath != null && !weightMapped) {
+        weightStream = weightPath.getFileSystem().open(weightPath);
+        weightStream.seek(weightOffset(getSplitStart()));
+      }
+      for (int row = 0; row < rows; row += chunkRows) {
+        int n = Math.min(chunkRows, rows - row);
+        int chunkStart = distances.getRowEntry(row);
+        int length = distances.getRowEntry(row + n) - chunkStart;
+        if (length != d.length) {
+          d = new short[length];
+          w = w != null ? new short[length] : null;
+        }
+        long offset = getSplitStart() + (long) chunkStart * byteSize;
+        if (generateData) {
+          ShortMatrixInputFormat.genData(d.length, d);
+        } else if (memoryMapped && ShortMatrixInputFormat.isLocalFile(filePath)) {
+          ShortMatrixInputFormat.readMappedFile(Paths.get(filePath.toUri().getPath()), offset, d, isBigEndian,
+              byteEncoded);
+        } else {
+          ShortMatrixInputFormat.readStream(this.stream, d, isBigEndian, byteEncoded);
+        }
+        if (w != null) {
+          if (generateData) {
+            ShortMatrixInputFormat.genData(w.length, w);
+          } else if (weightMapped) {
+            ShortMatrixInputFormat.readMappedFile(Paths.get(weightPath.toUri().getPath()),
+                weightOffset(getSplitStart()) + (long) chunkStart * Short.BYTES, w, weightBigEndian);
+          } else {
+            ShortMatrixInputFormat.readStream(weightStream, w, weightBigEndian);
+          }
+        }
+
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+          for (int j = distances.getFirstColumn(row + i); j < cols; j++, k++) {
+            short value = d[k];
+            if (value < 0 && (w == null || w[k] == 0)) {
+              continue;
+            }
+            if (count == columns.length) {
+              int capacity = count + Math.max(count >> 1, cols);
+              columns = Arrays.copyOf(columns, capacity);
+              data = Arrays.copyOf(data, capacity);
+              weightData = weightData != null ? Arrays.copyOf(weightData, capacity) : null;
+            }
+            columns[count] = j;
+            data[count] = value;
+            if (weightData != null) {
+              weightData[count] = w[k];
+            }
+            count++;
+          }
+          rowOffsets[row + i + 1] = count;
+        }
+      }
+    } finally {
+      if (weightStream != null) {
+        weightStream.close();
+      }
+    }
+
+    columns = Arrays.copyOf(columns, count);
+    distances.setData(Arrays.copyOf(data, count));
+    distances.setRowOffsets(rowOffsets);
+    distances.setColumns(columns);
+    if (weights != null) {
+      // the weights share the layout of the distances
+      weights.setData(Arrays.copyOf(weightData, count));
+      weights.setRowOffsets(rowOffsets);
+      weights.setColumns(columns);
+    }
+  }
+
+  /**
+   * Read the stored entries of the rows of the split from the sparse files. The stream is at the
+   * row offsets of the split
+   */
+  private void readSparseFile(ShortMatrixBlock distances, ShortMatrixBlock weights) throws IOException {
+    int rows = distances.getBlockRows();
+    long[] offsets = new long[rows + 1];
+    SparseMatrixFile.readLongs(this.stream, offsets, isBigEndian);
+    long[] entries = new long[1];
+    this.stream.seek(SparseMatrixFile.rowOffsetPosition(globalRowCount));
+    SparseMatrixFile.readLongs(this.stream, entries, isBigEndian);
+
+    long first = offsets[0];
+    int[] rowOffsets = new int[rows + 1];
+    for (int i = 0; i <= rows; i++) {
+      rowOffsets[i] = (int) (offsets[i] - first);
+    }
+    int[] columns = new int[rowOffsets[rows]];
+    short[] data = new short[rowOffsets[rows]];
+    this.stream.seek(SparseMatrixFile.columnsPosition(globalRowCount) + first * Integer.BYTES);
+    SparseMatrixFile.readInts(this.stream, columns, isBigEndian);
+    this.stream.seek(SparseMatrixFile.valuesPosition(globalRowCount, entries[0]) + first * Short.BYTES);
+    ShortMatrixInputFormat.readStream(this.stream, data, isBigEndian);
+
+    distances.setData(data);
+    distances.setRowOffsets(rowOffsets);
+    distances.setColumns(columns);
+    if (weights != null) {
+      short[] weightData = new short[data.length];
+      Path weightPath = new Path(weightFile);
+      try (FSDataInputStream in = weightPath.getFileSystem().open(weightPath)) {
+        in.seek(first * Short.BYTES);
+        ShortMatrixInputFormat.readStream(in, weightData, weightBigEndian);
+      }
+      // the weights share the layout of the distances
+      weights.setData(weightData);
+      weights.setRowOffsets(rowOffsets);
+      weights.setColumns(columns);
+    }
+  }
+
+  private void readWeights(short[] data) throws IOException {
+    Path weightPath = new Path(weightFile);
+    if (memoryMapped && ShortMatrixInputFormat.isLocalFile(weightPath)) {
+      ShortMatrixInputFormat.readMappedFile(Paths.get(weightPath.toUri().getPath()), weightOffset(getSplitStart()),
+          data, weightBigEndian);
+      return;
+    }
+    // the weight file has the same layout, so the rows of the split start at the same entry
+    try (FSDataInputStream in = weightPath.getFileSystem().open(weightPath)) {
+      in.seek(weightOffset(getSplitStart()));
+      ShortMatrixInputFormat.readStream(in, data, weightBigEndian);
+    }
+  }
+
+  /**
+   * Offset in the weight file of an offset in the distance file
+   */
+  private long weightOffset(long offset) {
+    return offset / byteSize * Short.BYTES;
+  }
+
+  /**
+   * Name of the cached dense weight blocks, the weight file keeps shorts in its own byte order
+   */
+  private String weightLayoutName() {
+    return layoutName(upperTriangular, Short.BYTES, weightBigEndian);
+  }
+
+  /**
+   * Name of the cached sparse weight blocks. The stored entries are decided by the distances, so the
+   * name has the distance file and its layout as well.
+   */
+  private String sparseWeightName() {
+    return weightLayoutName() + ",sparse," + filePath + "," + layoutName();
+  }
+
+  private ShortMatrixBlock cachedBlock(String file, int splitIndex, String transformName, int start, int rows) {
+    ShortMatrixBlock block = BlockCache.get(file, splitIndex, transformName);
+    if (block != null && block.getStart() == start && block.getBlockRows() == rows) {
+      return block;
+    }
+    return null;
+  }
+
+  private ShortMatrixBlock newBlock(int splitIndex, int start, int rows, boolean allocate) {
+    ShortMatrixBlock block = new ShortMatrixBlock();
+    block.setStart(start);
+    block.setBlockRows(rows);
+    block.setIndex(splitIndex);
+    block.setMatrixCols(globalColumnCount);
+    block.setMatrixRows(globalRowCount);
+    block.setUpperTriangular(upperTriangular);
+    block.setData(allocate ? new short[block.getEntryCount()] : null);
+    return block;
+  }
+
+  public String getWeightFile() {
+    return weightFile;
+  }
+
+  public void setWeightFile(String weightFile) {
+    this.weightFile = weightFile;
+  }
+
+  public boolean isWeightBigEndian() {
+    return weightBigEndian;
+  }
+
+  public void setWeightBigEndian(boolean weightBigEndian) {
+    this.weightBigEndian = weightBigEndian;
+  }
+
+  public BlockTransform<ShortMatrixBlock> getTransform() {
+    return transform;
+  }
+
+  public void setTransform(BlockTransform<ShortMatrixBlock> transform) {
+    this.transform = transform;
+  }
+
+  public boolean isMemoryMapped() {
+    return memoryMapped;
+  }
+
+  public void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+  }
+
+  public boolean isSparse() {
+    return sparse;
+  }
+
+  public void setSparse(boolean sparse) {
+    this.sparse = sparse;
+  }
+
+  public boolean isSparseFile() {
+    return sparseFile;
+  }
+
+  public void setSparseFile(boolean sparseFile) {
+    this.sparseFile = sparseFile;
+  }
+
+  public boolean isByteEncoded() {
+    return byteEncoded;
+  }
+
+  public void setByteEncoded(boolean byteEncoded) {
+    this.byteEncoded = byteEncoded;
+    this.byteSize = byteEncoded ? Byte.BYTES : Short.BYTES;
+  }
+
+  public boolean isCached() {
+    return cached;
+  }
+
+  public void setCached(boolean cached) {
+    this.cached = cached;
+  }
+
+  public String getCacheRun() {
+    return cacheRun;
+  }
+
+  public void setCacheRun(String cacheRun) {
+    this.cacheRun = cacheRun;
+  }
+
+  @Override
+  public TypeInformation<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> getProducedType() {
+    return MatrixTypes.SHORT_MATRIX_BLOCK_PAIR;
+  }
+}
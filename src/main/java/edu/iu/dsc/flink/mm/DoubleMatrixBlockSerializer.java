@@ -0,0 +1,82 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+
+/**
+ * Writes the block header followed by the data, see {@link ArrayIO}
+ */
+public final class DoubleMatrixBlockSerializer extends TypeSerializerSingleton<DoubleMatrixBlock> {
+  public static final DoubleMatrixBlockSerializer INSTANCE = new DoubleMatrixBlockSerializer();
+
+  @Override
+  public boolean isImmutableType() {
+    return false;
+  }
+
+  @Override
+  public DoubleMatrixBlock createInstance() {
+    return new DoubleMatrixBlock();
+  }
+
+  @Override
+  public DoubleMatrixBlock copy(DoubleMatrixBlock from) {
+    return copy(from, new DoubleMatrixBlock());
+  }
+
+  @Override
+  public DoubleMatrixBlock copy(DoubleMatrixBlock from, DoubleMatrixBlock reuse) {
+    reuse.setMatrixRows(from.getMatrixRows());
+    reuse.setMatrixCols(from.getMatrixCols());
+    reuse.setBlockRows(from.getBlockRows());
+    reuse.setStart(from.getStart());
+    reuse.setIndex(from.getIndex());
+    reuse.setData(from.getData() == null ? null : from.getData().clone());
+    return reuse;
+  }
+
+  @Override
+  public int getLength() {
+    return -1;
+  }
+
+  @Override
+  public void serialize(DoubleMatrixBlock block, DataOutputView target) throws IOException {
+    target.writeInt(block.getMatrixRows());
+    target.writeInt(block.getMatrixCols());
+    target.writeInt(block.getBlockRows());
+    target.writeInt(block.getStart());
+    target.writeInt(block.getIndex());
+    ArrayIO.writeDoubles(block.getData(), target);
+  }
+
+  @Override
+  public DoubleMatrixBlock deserialize(DataInputView source) throws IOException {
+    return deserialize(new DoubleMatrixBlock(), source);
+  }
+
+  @Override
+  public DoubleMatrixBlock deserialize(DoubleMatrixBlock reuse, DataInputView source) throws IOException {
+    reuse.setMatrixRows(source.readInt());
+    reuse.setMatrixCols(source.readInt());
+    reuse.setBlockRows(source.readInt());
+    reuse.setStart(source.readInt());
+    reuse.setIndex(source.readInt());
+    reuse.setData(ArrayIO.readDoubles(reuse.getData(), source));
+    return reuse;
+  }
+
+  @Override
+  public void copy(DataInputView source, DataOutputView target) throws IOException {
+    target.write(source, 5 * Integer.BYTES);
+    ArrayIO.copy(source, target, Double.BYTES);
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof DoubleMatrixBlockSerializer;
+  }
+}
@@ -0,0 +1,62 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+public class DoubleMatrixBlockType extends TypeInformation<DoubleMatrixBlock> {
+  @Override
+  public boolean isBasicType() {
+    return false;
+  }
+
+  @Override
+  public boolean isTupleType() {
+    return false;
+  }
+
+  @Override
+  public int getArity() {
+    return 1;
+  }
+
+  @Override
+  public int getTotalFields() {
+    return 1;
+  }
+
+  @Override
+  public Class<DoubleMatrixBlock> getTypeClass() {
+    return DoubleMatrixBlock.class;
+  }
+
+  @Override
+  public boolean isKeyType() {
+    return false;
+  }
+
+  @Override
+  public TypeSerializer<DoubleMatrixBlock> createSerializer(ExecutionConfig config) {
+    return DoubleMatrixBlockSerializer.INSTANCE;
+  }
+
+  @Override
+  public String toString() {
+    return "DoubleMatrixBlockType";
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof DoubleMatrixBlockType;
+  }
+
+  @Override
+  public int hashCode() {
+    return DoubleMatrixBlock.class.hashCode();
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof DoubleMatrixBlockType;
+  }
+}
@@ -1,5 +1,7 @@
 package edu.iu.dsc.flink.mm;
 
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
 import org.apache.flink.hadoop.shaded.com.google.common.io.LittleEndianDataInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -7,7 +9,7 @@ import org.slf4j.LoggerFactory;
 import java.io.DataInputStream;
 import java.io.IOException;
 
-public class DoubleMatrixInputFormat extends MatrixInputFormat<DoubleMatrixBlock> {
+public class DoubleMatrixInputFormat extends MatrixInputFormat<DoubleMatrixBlock> implements ResultTypeQueryable<DoubleMatrixBlock> {
   private static final Logger LOG = LoggerFactory
       .getLogger(DoubleMatrixInputFormat.class);
 
@@ -48,4 +50,9 @@ public class DoubleMatrixInputFormat extends MatrixInputFormat<DoubleMatrixBlock
     // LOG.info("Block print: " + splitIndex + "->" + block.toString());
     return block;
   }
+
+  @Override
+  public TypeInformation<DoubleMatrixBlock> getProducedType() {
+    return MatrixTypes.DOUBLE_MATRIX_BLOCK;
+  }
 }
@@ -1,8 +1,6 @@
 package edu.iu.dsc.flink.mm;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * A matrix represented as an array. The matrix is represented in the column major format.
@@ -18,7 +16,8 @@ public class Matrix implements Serializable {
 
   public int count;
 
-  private Map<String, Object> properties = new HashMap<String, Object>();
+  // annealing and cg state, kept in primitive fields instead of a map of boxed values
+  private MatrixState state = new MatrixState();
 
   boolean columnMajor = true;
 
@@ -95,16 +94,12 @@ public class Matrix implements Serializable {
     this.cols = cols;
   }
 
-  public void addProperty(String prop, Object val) {
-    properties.put(prop, val);
+  public MatrixState getState() {
+    return state;
   }
 
-  public Map<String, Object> getProperties() {
-    return properties;
-  }
-
-  public void setProperties(Map<String, Object> properties) {
-    this.properties = properties;
+  public void setState(MatrixState state) {
+    this.state = state;
   }
 
   public int getCount() {
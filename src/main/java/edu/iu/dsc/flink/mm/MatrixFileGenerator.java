@@ -23,6 +23,9 @@ public class MatrixFileGenerator {
     programOptions.addOption("m", true, "M");
     programOptions.addOption("f", true, "File name");
     programOptions.addOption("t", true, "Type of file");
+    programOptions.addOption("i", true, "Input matrix file of type u, b and s");
+    programOptions.addOption("w", true, "Input weight file of type s");
+    programOptions.addOption("o", true, "Output weight file of type s");
   }
 
   public static void main(String[] args) throws IOException {
@@ -49,6 +52,14 @@ public class MatrixFileGenerator {
       writeShortMatrixFile(n, m, true, fileName);
     } else if (type.equals("p")) {
       writePointsFile(n, m, fileName);
+    } else if (type.equals("u")) {
+      writeUpperTriangularFile(cmd.getOptionValue("i"), n, true, fileName);
+    } else if (type.equals("b")) {
+      writeByteFile(cmd.getOptionValue("i"), true, fileName);
+    } else if (type.equals("s")) {
+      long entries = SparseMatrixFile.write(cmd.getOptionValue("i"), cmd.getOptionValue("w"), n, fileName,
+          cmd.getOptionValue("o"));
+      System.out.println("Stored entries: " + entries);
     }
   }
 
@@ -115,6 +126,60 @@ public class MatrixFileGenerator {
     }
   }
 
+  /**
+   * Pack the upper triangle of a symmetric n x n short matrix, the row i keeps the columns [i, n).
+   * The file is about half the size of the full matrix, see {@link ShortMatrixBlock}.
+   */
+  public static void writeUpperTriangularFile(
+      String inFile, int n, boolean isBigEndian, String outFile)
+      throws IOException {
+    try (
+        BufferedInputStream matrixBufferedStream = new BufferedInputStream(
+            Files.newInputStream(Paths.get(inFile), StandardOpenOption.READ));
+        BufferedOutputStream triangleBufferedStream = new BufferedOutputStream(
+            Files.newOutputStream(Paths.get(outFile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)))
+    {
+      DataInput matrixStream = isBigEndian ? new DataInputStream(
+          matrixBufferedStream) : new LittleEndianDataInputStream(
+          matrixBufferedStream);
+      DataOutput triangleStream = isBigEndian ? new DataOutputStream(
+          triangleBufferedStream) : new LittleEndianDataOutputStream(
+          triangleBufferedStream);
+      for (int i = 0; i < n; i++) {
+        for (int j = 0; j < n; j++) {
+          short value = matrixStream.readShort();
+          if (j >= i) {
+            triangleStream.writeShort(value);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode every short of a matrix file, full or upper triangular, as a byte. The file is half the
+   * size of the short file and keeps 255 levels of distance, see {@link ShortMatrixInputFormat}.
+   */
+  public static void writeByteFile(String inFile, boolean isBigEndian, String outFile)
+      throws IOException {
+    long entries = Files.size(Paths.get(inFile)) / Short.BYTES;
+    try (
+        BufferedInputStream matrixBufferedStream = new BufferedInputStream(
+            Files.newInputStream(Paths.get(inFile), StandardOpenOption.READ));
+        BufferedOutputStream byteStream = new BufferedOutputStream(
+            Files.newOutputStream(Paths.get(outFile), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)))
+    {
+      DataInput matrixStream = isBigEndian ? new DataInputStream(
+          matrixBufferedStream) : new LittleEndianDataInputStream(
+          matrixBufferedStream);
+      for (long i = 0; i < entries; i++) {
+        byteStream.write(ShortMatrixInputFormat.encodeByte(matrixStream.readShort()));
+      }
+    }
+  }
+
   public static void writeMatrixFile(
       int n, int m, double []data, boolean isBigEndian, String outFile)
       throws IOException {
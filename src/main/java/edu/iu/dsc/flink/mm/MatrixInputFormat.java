@@ -9,6 +9,12 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * Reads row blocks of a matrix file, a split is a range of rows. The file has the rows of the full
+ * matrix, or the upper triangle of a symmetric matrix packed row after row, see
+ * {@link ShortMatrixBlock}. The rows of the triangle get shorter, so the splits of a triangular file
+ * are balanced by the number of entries instead of the number of rows.
+ */
 public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
   private static final long serialVersionUID = 1L;
 
@@ -21,6 +27,9 @@ public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
   protected boolean isRead = false;
   protected boolean generateData = false;
   protected int byteSize = Double.BYTES;
+  // the file keeps the upper triangle of a symmetric matrix
+  protected boolean upperTriangular = false;
+
   @Override
   public FileInputSplit[] createInputSplits(int minNumSplits)
       throws IOException {
@@ -30,8 +39,7 @@ public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
     LOG.info("Min splits: " + minNumSplits);
 
     FileInputSplit[] splits = new FileInputSplit[minNumSplits];
-    int q = globalRowCount / minNumSplits;
-    int r = globalRowCount % minNumSplits;
+    int[] rows = splitRows(minNumSplits);
 
     long start = 0, length;
     BlockLocation[] blocks;
@@ -46,7 +54,7 @@ public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
           hosts.add(host);
         }
       }
-      length = (q + (i < r ? 1 : 0)) * globalColumnCount * byteSize;
+      length = rowOffset(rows[i + 1]) - start;
       LOG.error(String.format("Block start %d length %d", start, length));
       if (start < 0 || length < 0) {
         throw new RuntimeException("stat negativve");
@@ -61,6 +69,75 @@ public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
     return splits;
   }
 
+  /**
+   * First row of every split followed by the row count. The rows are divided equally for a full
+   * matrix, for a triangular matrix each split gets about the same number of entries.
+   */
+  protected int[] splitRows(int splits) {
+    int[] rows = new int[splits + 1];
+    if (!upperTriangular) {
+      int q = globalRowCount / splits;
+      int r = globalRowCount % splits;
+      for (int i = 0; i < splits; i++) {
+        rows[i + 1] = rows[i] + q + (i < r ? 1 : 0);
+      }
+      return rows;
+    }
+    long entries = ShortMatrixBlock.upperTriangleOffset(globalColumnCount, globalRowCount);
+    for (int i = 1; i < splits; i++) {
+      rows[i] = rowAtEntry(entries * i / splits);
+    }
+    rows[splits] = globalRowCount;
+    return rows;
+  }
+
+  /**
+   * Offset of the row in the file in bytes
+   */
+  protected long rowOffset(int row) {
+    if (upperTriangular) {
+      return ShortMatrixBlock.upperTriangleOffset(globalColumnCount, row) * byteSize;
+    }
+    return (long) row * globalColumnCount * byteSize;
+  }
+
+  /**
+   * The row starting at the offset of the file in bytes
+   */
+  protected int rowAt(long offset) {
+    if (upperTriangular) {
+      return rowAtEntry(offset / byteSize);
+    }
+    return (int) (offset / ((long) globalColumnCount * byteSize));
+  }
+
+  /**
+   * First row of the triangle that starts at or after the entry
+   */
+  private int rowAtEntry(long entry) {
+    int low = 0, high = globalRowCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ShortMatrixBlock.upperTriangleOffset(globalColumnCount, mid) < entry) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The settings that change the blocks read from the file, part of the name of a cached block
+   */
+  protected String layoutName() {
+    return layoutName(upperTriangular, byteSize, isBigEndian);
+  }
+
+  protected static String layoutName(boolean upperTriangular, int byteSize, boolean isBigEndian) {
+    return (upperTriangular ? "triangular" : "full") + "," + byteSize + (isBigEndian ? ",big" : ",little");
+  }
+
   @Override
   public boolean reachedEnd() throws IOException {
     return isRead;
@@ -71,8 +148,8 @@ public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
     if (fileSplit.getStart() < 0) {
       throw new RuntimeException("Negative split start");
     }
-    // This uses an input stream, later see how to change to
-    // memory maps, will have to change nextRecord() method as well
+    // This uses an input stream, ShortMatrixInputFormat can read local
+    // files through a memory map instead, see nextRecord() there
     super.open(fileSplit);
     isRead = false;
   }
@@ -101,6 +178,14 @@ public abstract class MatrixInputFormat<T> extends FileInputFormat<T> {
     this.globalRowCount = globalRowCount;
   }
 
+  public boolean isUpperTriangular() {
+    return upperTriangular;
+  }
+
+  public void setUpperTriangular(boolean upperTriangular) {
+    this.upperTriangular = upperTriangular;
+  }
+
   public boolean isGenerateData() {
     return generateData;
   }
@@ -0,0 +1,105 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+
+/**
+ * Writes the matrix header, the state and the data, see {@link ArrayIO}
+ */
+public final class MatrixSerializer extends TypeSerializerSingleton<Matrix> {
+  public static final MatrixSerializer INSTANCE = new MatrixSerializer();
+
+  // rows, cols, index, count, start index and the column major and state flags
+  private static final int HEADER_SIZE = 5 * Integer.BYTES + 2;
+
+  @Override
+  public boolean isImmutableType() {
+    return false;
+  }
+
+  @Override
+  public Matrix createInstance() {
+    return new Matrix();
+  }
+
+  @Override
+  public Matrix copy(Matrix from) {
+    return copy(from, new Matrix());
+  }
+
+  @Override
+  public Matrix copy(Matrix from, Matrix reuse) {
+    reuse.setRows(from.getRows());
+    reuse.setCols(from.getCols());
+    reuse.setIndex(from.getIndex());
+    reuse.setCount(from.getCount());
+    reuse.setStartIndex(from.getStartIndex());
+    reuse.setColumnMajor(from.isColumnMajor());
+    reuse.setData(from.getData() == null ? null : from.getData().clone());
+    reuse.setState(from.getState() == null ? null : MatrixStateSerializer.INSTANCE.copy(from.getState()));
+    return reuse;
+  }
+
+  @Override
+  public int getLength() {
+    return -1;
+  }
+
+  @Override
+  public void serialize(Matrix matrix, DataOutputView target) throws IOException {
+    target.writeInt(matrix.getRows());
+    target.writeInt(matrix.getCols());
+    target.writeInt(matrix.getIndex());
+    target.writeInt(matrix.getCount());
+    target.writeInt(matrix.getStartIndex());
+    target.writeBoolean(matrix.isColumnMajor());
+    MatrixState state = matrix.getState();
+    target.writeBoolean(state != null);
+    if (state != null) {
+      MatrixStateSerializer.INSTANCE.serialize(state, target);
+    }
+    ArrayIO.writeDoubles(matrix.getData(), target);
+  }
+
+  @Override
+  public Matrix deserialize(DataInputView source) throws IOException {
+    return deserialize(new Matrix(), source);
+  }
+
+  @Override
+  public Matrix deserialize(Matrix reuse, DataInputView source) throws IOException {
+    reuse.setRows(source.readInt());
+    reuse.setCols(source.readInt());
+    reuse.setIndex(source.readInt());
+    reuse.setCount(source.readInt());
+    reuse.setStartIndex(source.readInt());
+    reuse.setColumnMajor(source.readBoolean());
+    if (source.readBoolean()) {
+      MatrixState state = reuse.getState() != null ? reuse.getState() : new MatrixState();
+      reuse.setState(MatrixStateSerializer.INSTANCE.deserialize(state, source));
+    } else {
+      reuse.setState(null);
+    }
+    reuse.setData(ArrayIO.readDoubles(reuse.getData(), source));
+    return reuse;
+  }
+
+  @Override
+  public void copy(DataInputView source, DataOutputView target) throws IOException {
+    target.write(source, HEADER_SIZE - 1);
+    boolean hasState = source.readBoolean();
+    target.writeBoolean(hasState);
+    if (hasState) {
+      MatrixStateSerializer.INSTANCE.copy(source, target);
+    }
+    ArrayIO.copy(source, target, Double.BYTES);
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof MatrixSerializer;
+  }
+}
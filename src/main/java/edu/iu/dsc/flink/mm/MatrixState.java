@@ -0,0 +1,51 @@
+package edu.iu.dsc.flink.mm;
+
+/**
+ * Header of scalars carried by a matrix between the operators of an iterative solver, i.e. the
+ * annealing and conjugate gradient state of DAMDS. It only has primitive fields, so it is written
+ * as a fixed length record, see {@link MatrixStateSerializer}
+ */
+public class MatrixState {
+  // current temperature
+  public double tCur;
+  // 1 / sum of squares of the distances
+  public double invs;
+  // average distance, used by the Sammon weights
+  public double avgDist;
+  // stress calculated along with the matrix
+  public double stress;
+  // r^T r of the residual, r^T M^-1 r if the loop is preconditioned
+  public double rTr;
+  // the cg loop stops when rTr goes below this value
+  public double testEnd;
+  // cg iterations done
+  public int cgItr;
+  // the cg loop has converged
+  public boolean breakLoop;
+  // run all the cg iterations
+  public boolean exactCG;
+  // the product of V with the matrix is carried from the previous stress iteration
+  public boolean warmStart;
+
+  public MatrixState() {
+  }
+
+  public void copyTo(MatrixState to) {
+    to.tCur = tCur;
+    to.invs = invs;
+    to.avgDist = avgDist;
+    to.stress = stress;
+    to.rTr = rTr;
+    to.testEnd = testEnd;
+    to.cgItr = cgItr;
+    to.breakLoop = breakLoop;
+    to.exactCG = exactCG;
+    to.warmStart = warmStart;
+  }
+
+  @Override
+  public String toString() {
+    return tCur + "," + invs + "," + avgDist + "," + stress + "," + rTr + "," + testEnd + ","
+        + cgItr + "," + breakLoop + "," + exactCG + "," + warmStart;
+  }
+}
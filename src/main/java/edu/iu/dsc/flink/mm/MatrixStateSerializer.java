@@ -0,0 +1,88 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+
+/**
+ * Writes the state as a fixed length record of its primitive fields.
+ */
+public final class MatrixStateSerializer extends TypeSerializerSingleton<MatrixState> {
+  public static final MatrixStateSerializer INSTANCE = new MatrixStateSerializer();
+
+  public static final int LENGTH = 6 * Double.BYTES + Integer.BYTES + 3;
+
+  @Override
+  public boolean isImmutableType() {
+    return false;
+  }
+
+  @Override
+  public MatrixState createInstance() {
+    return new MatrixState();
+  }
+
+  @Override
+  public MatrixState copy(MatrixState from) {
+    MatrixState to = new MatrixState();
+    from.copyTo(to);
+    return to;
+  }
+
+  @Override
+  public MatrixState copy(MatrixState from, MatrixState reuse) {
+    from.copyTo(reuse);
+    return reuse;
+  }
+
+  @Override
+  public int getLength() {
+    return LENGTH;
+  }
+
+  @Override
+  public void serialize(MatrixState state, DataOutputView target) throws IOException {
+    target.writeDouble(state.tCur);
+    target.writeDouble(state.invs);
+    target.writeDouble(state.avgDist);
+    target.writeDouble(state.stress);
+    target.writeDouble(state.rTr);
+    target.writeDouble(state.testEnd);
+    target.writeInt(state.cgItr);
+    target.writeBoolean(state.breakLoop);
+    target.writeBoolean(state.exactCG);
+    target.writeBoolean(state.warmStart);
+  }
+
+  @Override
+  public MatrixState deserialize(DataInputView source) throws IOException {
+    return deserialize(new MatrixState(), source);
+  }
+
+  @Override
+  public MatrixState deserialize(MatrixState reuse, DataInputView source) throws IOException {
+    reuse.tCur = source.readDouble();
+    reuse.invs = source.readDouble();
+    reuse.avgDist = source.readDouble();
+    reuse.stress = source.readDouble();
+    reuse.rTr = source.readDouble();
+    reuse.testEnd = source.readDouble();
+    reuse.cgItr = source.readInt();
+    reuse.breakLoop = source.readBoolean();
+    reuse.exactCG = source.readBoolean();
+    reuse.warmStart = source.readBoolean();
+    return reuse;
+  }
+
+  @Override
+  public void copy(DataInputView source, DataOutputView target) throws IOException {
+    target.write(source, LENGTH);
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof MatrixStateSerializer;
+  }
+}
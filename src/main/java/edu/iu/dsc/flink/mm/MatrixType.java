@@ -0,0 +1,62 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+public class MatrixType extends TypeInformation<Matrix> {
+  @Override
+  public boolean isBasicType() {
+    return false;
+  }
+
+  @Override
+  public boolean isTupleType() {
+    return false;
+  }
+
+  @Override
+  public int getArity() {
+    return 1;
+  }
+
+  @Override
+  public int getTotalFields() {
+    return 1;
+  }
+
+  @Override
+  public Class<Matrix> getTypeClass() {
+    return Matrix.class;
+  }
+
+  @Override
+  public boolean isKeyType() {
+    return false;
+  }
+
+  @Override
+  public TypeSerializer<Matrix> createSerializer(ExecutionConfig config) {
+    return MatrixSerializer.INSTANCE;
+  }
+
+  @Override
+  public String toString() {
+    return "MatrixType";
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof MatrixType;
+  }
+
+  @Override
+  public int hashCode() {
+    return Matrix.class.hashCode();
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof MatrixType;
+  }
+}
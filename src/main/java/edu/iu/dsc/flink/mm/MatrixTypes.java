@@ -0,0 +1,41 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.typeinfo.BasicTypeInfo;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.api.java.tuple.Tuple3;
+import org.apache.flink.api.java.typeutils.TupleTypeInfo;
+
+/**
+ * Type information of the matrix types and the tuples built from them. Operators producing these
+ * types set them with returns(), so the data is written by the hand written serializers instead
+ * of the generic ones.
+ */
+public final class MatrixTypes {
+  public static final TypeInformation<Matrix> MATRIX = new MatrixType();
+
+  public static final TypeInformation<ShortMatrixBlock> SHORT_MATRIX_BLOCK = new ShortMatrixBlockType();
+
+  public static final TypeInformation<DoubleMatrixBlock> DOUBLE_MATRIX_BLOCK = new DoubleMatrixBlockType();
+
+  // distance and weight blocks
+  public static final TypeInformation<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> SHORT_MATRIX_BLOCK_PAIR =
+      new TupleTypeInfo<Tuple2<ShortMatrixBlock, ShortMatrixBlock>>(SHORT_MATRIX_BLOCK, SHORT_MATRIX_BLOCK);
+
+  // matrix parts keyed by their index
+  public static final TypeInformation<Tuple2<Integer, Matrix>> INDEXED_MATRIX =
+      new TupleTypeInfo<Tuple2<Integer, Matrix>>(BasicTypeInfo.INT_TYPE_INFO, MATRIX);
+
+  public static final TypeInformation<Tuple2<Matrix, Matrix>> MATRIX_PAIR =
+      new TupleTypeInfo<Tuple2<Matrix, Matrix>>(MATRIX, MATRIX);
+
+  public static final TypeInformation<Tuple3<Matrix, Matrix, Matrix>> MATRIX_TRIPLE =
+      new TupleTypeInfo<Tuple3<Matrix, Matrix, Matrix>>(MATRIX, MATRIX, MATRIX);
+
+  // a matrix with its distance and weight blocks
+  public static final TypeInformation<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>> MATRIX_SHORT_MATRIX_BLOCK_PAIR =
+      new TupleTypeInfo<Tuple3<Matrix, ShortMatrixBlock, ShortMatrixBlock>>(MATRIX, SHORT_MATRIX_BLOCK, SHORT_MATRIX_BLOCK);
+
+  private MatrixTypes() {
+  }
+}
@@ -2,15 +2,16 @@ package edu.iu.dsc.flink.mm;
 
 import com.google.common.base.Strings;
 import org.apache.flink.api.common.io.FileInputFormat;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
 import org.apache.flink.core.fs.FileInputSplit;
 
 import java.io.DataInputStream;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Scanner;
 import java.util.regex.Pattern;
 
-public class PointInputFormat extends FileInputFormat<Matrix> {
+public class PointInputFormat extends FileInputFormat<Matrix> implements ResultTypeQueryable<Matrix> {
   protected boolean isRead = false;
   protected int rows;
   protected int cols;
@@ -66,7 +67,7 @@ public class PointInputFormat extends FileInputFormat<Matrix> {
       }
       block.setData(preX);
     }
-    block.setProperties(new HashMap<String, Object>());
+    block.setState(new MatrixState());
     isRead = true;
     return block;
   }
@@ -78,4 +79,9 @@ public class PointInputFormat extends FileInputFormat<Matrix> {
     super.open(fileSplit);
     isRead = false;
   }
+
+  @Override
+  public TypeInformation<Matrix> getProducedType() {
+    return MatrixTypes.MATRIX;
+  }
 }
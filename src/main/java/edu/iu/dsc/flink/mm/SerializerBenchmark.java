@@ -0,0 +1,87 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.java.typeutils.runtime.kryo.KryoSerializer;
+import org.apache.flink.core.memory.DataInputViewStreamWrapper;
+import org.apache.flink.core.memory.DataOutputViewStreamWrapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the matrix serializers with Kryo. Each serializer writes and reads back a block of the
+ * given size and the average times are printed.
+ * Usage: SerializerBenchmark [block rows] [cols] [iterations]
+ */
+public class SerializerBenchmark {
+  public static void main(String[] args) throws IOException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int cols = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+    Random random = new Random(0);
+
+    ShortMatrixBlock shortBlock = new ShortMatrixBlock();
+    shortBlock.setMatrixRows(cols);
+    shortBlock.setMatrixCols(cols);
+    shortBlock.setBlockRows(rows);
+    short[] shorts = new short[rows * cols];
+    for (int i = 0; i < shorts.length; i++) {
+      shorts[i] = (short) random.nextInt(Short.MAX_VALUE);
+    }
+    shortBlock.setData(shorts);
+
+    double[] doubles = new double[rows * cols];
+    for (int i = 0; i < doubles.length; i++) {
+      doubles[i] = random.nextDouble();
+    }
+    DoubleMatrixBlock doubleBlock = new DoubleMatrixBlock(0, 0, rows, cols, cols);
+    doubleBlock.setData(doubles);
+    Matrix matrix = new Matrix(doubles, rows, cols, false);
+    matrix.getState().tCur = 1.0;
+
+    ExecutionConfig config = new ExecutionConfig();
+    run("ShortMatrixBlock", shortBlock, ShortMatrixBlockSerializer.INSTANCE, iterations);
+    run("ShortMatrixBlock Kryo", shortBlock, new KryoSerializer<ShortMatrixBlock>(ShortMatrixBlock.class, config), iterations);
+    run("DoubleMatrixBlock", doubleBlock, DoubleMatrixBlockSerializer.INSTANCE, iterations);
+    run("DoubleMatrixBlock Kryo", doubleBlock, new KryoSerializer<DoubleMatrixBlock>(DoubleMatrixBlock.class, config), iterations);
+    run("Matrix", matrix, MatrixSerializer.INSTANCE, iterations);
+    run("Matrix Kryo", matrix, new KryoSerializer<Matrix>(Matrix.class, config), iterations);
+
+    if (!Arrays.equals(shorts, roundTrip(shortBlock, ShortMatrixBlockSerializer.INSTANCE).getData())
+        || !Arrays.equals(doubles, roundTrip(doubleBlock, DoubleMatrixBlockSerializer.INSTANCE).getData())
+        || !Arrays.equals(doubles, roundTrip(matrix, MatrixSerializer.INSTANCE).getData())) {
+      throw new RuntimeException("Serialized data is different from the original");
+    }
+  }
+
+  private static <T> void run(String name, T record, TypeSerializer<T> serializer, int iterations) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    long serializeTime = 0;
+    long deserializeTime = 0;
+    // the first iteration warms up
+    for (int i = 0; i <= iterations; i++) {
+      bytes.reset();
+      long start = System.nanoTime();
+      serializer.serialize(record, new DataOutputViewStreamWrapper(bytes));
+      long end = System.nanoTime();
+      serializer.deserialize(new DataInputViewStreamWrapper(new ByteArrayInputStream(bytes.toByteArray())));
+      long read = System.nanoTime();
+      if (i > 0) {
+        serializeTime += end - start;
+        deserializeTime += read - end;
+      }
+    }
+    System.out.printf("%-24s bytes=%d serialize=%.3fms deserialize=%.3fms\n", name, bytes.size(),
+        serializeTime / 1e6 / iterations, deserializeTime / 1e6 / iterations);
+  }
+
+  private static <T> T roundTrip(T record, TypeSerializer<T> serializer) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.serialize(record, new DataOutputViewStreamWrapper(bytes));
+    return serializer.deserialize(new DataInputViewStreamWrapper(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+}
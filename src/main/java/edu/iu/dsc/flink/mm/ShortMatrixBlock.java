@@ -1,8 +1,24 @@
 package edu.iu.dsc.flink.mm;
 
+/**
+ * A row block of a short matrix. The block is dense, or sparse in the compressed sparse row format
+ * where only the stored entries are kept. The stored entries of the local row i are
+ * [rowOffsets[i], rowOffsets[i + 1]) in the data and their global columns are at the same
+ * positions of columns.
+ *
+ * A block of a symmetric matrix can keep the upper triangle of its rows only, the global row r then
+ * has the columns [r, matrixCols) packed one row after the other. A sparse block keeps the stored
+ * entries of the upper triangle. The entries below the diagonal are the mirrors of the stored ones.
+ */
 public class ShortMatrixBlock extends MatrixBlock {
   // the actual data for this block
   private short []data;
+  // start of each row in the data of a sparse block, null if the block is dense
+  private int []rowOffsets;
+  // global column of each entry of a sparse block
+  private int []columns;
+  // the rows keep the entries on and above the diagonal only
+  private boolean upperTriangular;
 
   public void setData(short[] data) {
     this.data = data;
@@ -12,12 +28,80 @@ public class ShortMatrixBlock extends MatrixBlock {
     return data;
   }
 
+  public int[] getRowOffsets() {
+    return rowOffsets;
+  }
+
+  public void setRowOffsets(int[] rowOffsets) {
+    this.rowOffsets = rowOffsets;
+  }
+
+  public int[] getColumns() {
+    return columns;
+  }
+
+  public void setColumns(int[] columns) {
+    this.columns = columns;
+  }
+
+  public boolean isSparse() {
+    return rowOffsets != null;
+  }
+
+  public boolean isUpperTriangular() {
+    return upperTriangular;
+  }
+
+  public void setUpperTriangular(boolean upperTriangular) {
+    this.upperTriangular = upperTriangular;
+  }
+
+  /**
+   * Number of stored entries
+   */
+  public int getEntryCount() {
+    return getRowEntry(blockRows);
+  }
+
+  /**
+   * Position of the first stored entry of the local row in the data
+   */
+  public int getRowEntry(int localRow) {
+    if (isSparse()) {
+      return rowOffsets[localRow];
+    } else if (upperTriangular) {
+      return (int) (upperTriangleOffset(matrixCols, start + localRow) - upperTriangleOffset(matrixCols, start));
+    }
+    return localRow * matrixCols;
+  }
+
+  /**
+   * Global column of the first entry of a local row of a block that is not sparse
+   */
+  public int getFirstColumn(int localRow) {
+    return upperTriangular ? start + localRow : 0;
+  }
+
+  /**
+   * Number of entries of the upper triangle of an n x n matrix before the row
+   */
+  public static long upperTriangleOffset(int n, int row) {
+    return (long) row * n - (long) row * (row - 1) / 2;
+  }
+
   @Override
   public String toString() {
     StringBuilder sb = new StringBuilder();
     for (int i = 0; i < blockRows; i++) {
-      for (int j = 0; j < matrixCols; j++) {
-        sb.append(data[i * matrixCols + j]).append(" ");
+      if (isSparse()) {
+        for (int e = rowOffsets[i]; e < rowOffsets[i + 1]; e++) {
+          sb.append(columns[e]).append(":").append(data[e]).append(" ");
+        }
+      } else {
+        int entry = getRowEntry(i);
+        for (int j = getFirstColumn(i); j < matrixCols; j++) {
+          sb.append(data[entry++]).append(" ");
+        }
       }
       sb.append("\n");
     }
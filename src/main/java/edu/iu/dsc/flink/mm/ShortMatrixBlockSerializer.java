@@ -0,0 +1,94 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+import java.io.IOException;
+
+/**
+ * Writes the block header followed by the data and, for a sparse block, the row offsets and the
+ * columns, see {@link ArrayIO}
+ */
+public final class ShortMatrixBlockSerializer extends TypeSerializerSingleton<ShortMatrixBlock> {
+  public static final ShortMatrixBlockSerializer INSTANCE = new ShortMatrixBlockSerializer();
+
+  @Override
+  public boolean isImmutableType() {
+    return false;
+  }
+
+  @Override
+  public ShortMatrixBlock createInstance() {
+    return new ShortMatrixBlock();
+  }
+
+  @Override
+  public ShortMatrixBlock copy(ShortMatrixBlock from) {
+    return copy(from, new ShortMatrixBlock());
+  }
+
+  @Override
+  public ShortMatrixBlock copy(ShortMatrixBlock from, ShortMatrixBlock reuse) {
+    reuse.setMatrixRows(from.getMatrixRows());
+    reuse.setMatrixCols(from.getMatrixCols());
+    reuse.setBlockRows(from.getBlockRows());
+    reuse.setStart(from.getStart());
+    reuse.setIndex(from.getIndex());
+    reuse.setUpperTriangular(from.isUpperTriangular());
+    reuse.setData(from.getData() == null ? null : from.getData().clone());
+    reuse.setRowOffsets(from.getRowOffsets() == null ? null : from.getRowOffsets().clone());
+    reuse.setColumns(from.getColumns() == null ? null : from.getColumns().clone());
+    return reuse;
+  }
+
+  @Override
+  public int getLength() {
+    return -1;
+  }
+
+  @Override
+  public void serialize(ShortMatrixBlock block, DataOutputView target) throws IOException {
+    target.writeInt(block.getMatrixRows());
+    target.writeInt(block.getMatrixCols());
+    target.writeInt(block.getBlockRows());
+    target.writeInt(block.getStart());
+    target.writeInt(block.getIndex());
+    target.writeBoolean(block.isUpperTriangular());
+    ArrayIO.writeShorts(block.getData(), target);
+    ArrayIO.writeInts(block.getRowOffsets(), target);
+    ArrayIO.writeInts(block.getColumns(), target);
+  }
+
+  @Override
+  public ShortMatrixBlock deserialize(DataInputView source) throws IOException {
+    return deserialize(new ShortMatrixBlock(), source);
+  }
+
+  @Override
+  public ShortMatrixBlock deserialize(ShortMatrixBlock reuse, DataInputView source) throws IOException {
+    reuse.setMatrixRows(source.readInt());
+    reuse.setMatrixCols(source.readInt());
+    reuse.setBlockRows(source.readInt());
+    reuse.setStart(source.readInt());
+    reuse.setIndex(source.readInt());
+    reuse.setUpperTriangular(source.readBoolean());
+    reuse.setData(ArrayIO.readShorts(reuse.getData(), source));
+    reuse.setRowOffsets(ArrayIO.readInts(reuse.getRowOffsets(), source));
+    reuse.setColumns(ArrayIO.readInts(reuse.getColumns(), source));
+    return reuse;
+  }
+
+  @Override
+  public void copy(DataInputView source, DataOutputView target) throws IOException {
+    target.write(source, 5 * Integer.BYTES + 1);
+    ArrayIO.copy(source, target, Short.BYTES);
+    ArrayIO.copy(source, target, Integer.BYTES);
+    ArrayIO.copy(source, target, Integer.BYTES);
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof ShortMatrixBlockSerializer;
+  }
+}
@@ -0,0 +1,62 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+public class ShortMatrixBlockType extends TypeInformation<ShortMatrixBlock> {
+  @Override
+  public boolean isBasicType() {
+    return false;
+  }
+
+  @Override
+  public boolean isTupleType() {
+    return false;
+  }
+
+  @Override
+  public int getArity() {
+    return 1;
+  }
+
+  @Override
+  public int getTotalFields() {
+    return 1;
+  }
+
+  @Override
+  public Class<ShortMatrixBlock> getTypeClass() {
+    return ShortMatrixBlock.class;
+  }
+
+  @Override
+  public boolean isKeyType() {
+    return false;
+  }
+
+  @Override
+  public TypeSerializer<ShortMatrixBlock> createSerializer(ExecutionConfig config) {
+    return ShortMatrixBlockSerializer.INSTANCE;
+  }
+
+  @Override
+  public String toString() {
+    return "ShortMatrixBlockType";
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof ShortMatrixBlockType;
+  }
+
+  @Override
+  public int hashCode() {
+    return ShortMatrixBlock.class.hashCode();
+  }
+
+  @Override
+  public boolean canEqual(Object obj) {
+    return obj instanceof ShortMatrixBlockType;
+  }
+}
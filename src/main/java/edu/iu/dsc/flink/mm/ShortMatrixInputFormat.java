@@ -1,18 +1,51 @@
 package edu.iu.dsc.flink.mm;
 
-import org.apache.flink.hadoop.shaded.com.google.common.io.LittleEndianDataInputStream;
-import org.apache.zookeeper.KeeperException;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.java.typeutils.ResultTypeQueryable;
+import org.apache.flink.core.fs.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Random;
 
-public class ShortMatrixInputFormat extends MatrixInputFormat<ShortMatrixBlock> {
+/**
+ * Reads row blocks of a short matrix. The file keeps a short per entry, or a byte per entry if byte
+ * encoded is set. A byte b in [0, 254] is the short round(b * Short.MAX_VALUE / 254) and 255 is a
+ * missing (negative) entry, the bytes are decoded while reading so the blocks are the same as the
+ * ones of a short file.
+ */
+public class ShortMatrixInputFormat extends MatrixInputFormat<ShortMatrixBlock> implements ResultTypeQueryable<ShortMatrixBlock> {
   private static final Logger LOG = LoggerFactory
       .getLogger(DoubleMatrixInputFormat.class);
 
+  // transformation applied after reading a block
+  private BlockTransform<ShortMatrixBlock> transform;
+  // keep the blocks in the TaskManager cache
+  private boolean cached = false;
+  // the run of the cached blocks, see BlockCache
+  private String cacheRun;
+  // read local files through a memory map instead of the input stream
+  private boolean memoryMapped = false;
+  // maximum size of a single mapped region
+  private static final long MAX_MAP_SIZE = 1L << 30;
+  // size of the buffer used for reading from a stream
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+  // the byte of a missing entry in a byte encoded file
+  public static final int MISSING_BYTE = 255;
+  // short of every byte of a byte encoded file
+  private static final short[] BYTE_TABLE = createByteTable();
+  // the file keeps a byte per entry
+  private boolean byteEncoded = false;
+
   public ShortMatrixInputFormat() {
     this.byteSize = Short.BYTES;
   }
@@ -20,13 +53,14 @@ public class ShortMatrixInputFormat extends MatrixInputFormat<ShortMatrixBlock>
   @Override
   public ShortMatrixBlock nextRecord(ShortMatrixBlock block) throws IOException {
     long splitLength = getSplitLength();
-    int rows = (int) (splitLength / (Short.BYTES * globalColumnCount));
+    int start = rowAt(getSplitStart());
+    int rows = rowAt(getSplitStart() + splitLength) - start;
     int splitIndex = this.currentSplit.getSplitNumber();
     LOG.info("{} Split Length: {}\n", splitIndex, splitLength);
-    int length = (int)(this.splitLength / Short.BYTES);
+    int length = (int)(this.splitLength / byteSize);
     block = new ShortMatrixBlock();
 
-    block.setStart((int)(this.getSplitStart() / (Short.BYTES * globalColumnCount)));
+    block.setStart(start);
     if (block.getStart() < 0) {
       throw new RuntimeException(String.format("Block start is negative %d ", block.getStart()));
     }
@@ -34,34 +68,203 @@ public class ShortMatrixInputFormat extends MatrixInputFormat<ShortMatrixBlock>
     block.setIndex(splitIndex);
     block.setMatrixCols(globalColumnCount);
     block.setMatrixRows(globalRowCount);
+    block.setUpperTriangular(upperTriangular);
+
+    String transformName = (transform != null ? transform.getName() : "none") + "," + layoutName();
+    if (cached) {
+      BlockCache.beginRun(cacheRun);
+      ShortMatrixBlock cachedBlock = BlockCache.get(filePath.toString(), splitIndex, transformName);
+      if (cachedBlock != null && cachedBlock.getStart() == block.getStart()
+          && cachedBlock.getBlockRows() == block.getBlockRows()) {
+        isRead = true;
+        return cachedBlock;
+      }
+    }
 
-    short[] reuse = new short[(int) (getSplitLength() / Short.BYTES)];
+    short[] reuse = new short[length];
     if (!generateData) {
-      readFile(length, reuse);
+      if (memoryMapped && isLocalFile(filePath)) {
+        readMappedFile(Paths.get(filePath.toUri().getPath()), getSplitStart(), reuse, isBigEndian, byteEncoded);
+      } else {
+        readFile(length, reuse);
+      }
     } else {
       genData(length, reuse);
     }
     isRead = true;
     block.setData(reuse);
+    if (transform != null) {
+      transform.transform(block);
+    }
+    if (cached) {
+      BlockCache.put(filePath.toString(), splitIndex, transformName, block);
+    }
     // LOG.info("Block print: " + splitIndex + "->" + block.toString());
     return block;
   }
 
   private void readFile(int length, short[] reuse) throws IOException {
-    if (isBigEndian) {
-      DataInputStream dis = new DataInputStream(this.stream);
-      for (int i = 0; i < length; ++i) {
-        reuse[i] = dis.readShort();
+    readStream(this.stream, reuse, isBigEndian, byteEncoded);
+  }
+
+  /**
+   * Read shorts, or bytes decoded to shorts if the stream is byte encoded
+   */
+  public static void readStream(InputStream in, short[] to, boolean isBigEndian,
+                                boolean byteEncoded) throws IOException {
+    if (byteEncoded) {
+      readByteStream(in, to);
+    } else {
+      readStream(in, to, isBigEndian);
+    }
+  }
+
+  /**
+   * Read shorts from a stream, the bytes are read in to a buffer and decoded in bulk.
+   * @param in the stream
+   * @param to the array to fill
+   * @param isBigEndian byte order of the stream
+   */
+  public static void readStream(InputStream in, short[] to, boolean isBigEndian) throws IOException {
+    byte[] bytes = new byte[READ_BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    int index = 0;
+    while (index < to.length) {
+      int count = Math.min(to.length - index, READ_BUFFER_SIZE / Short.BYTES);
+      int length = count * Short.BYTES;
+      int read = 0;
+      while (read < length) {
+        int r = in.read(bytes, read, length - read);
+        if (r < 0) {
+          throw new EOFException("Unexpected end of stream");
+        }
+        read += r;
+      }
+      buffer.clear();
+      buffer.asShortBuffer().get(to, index, count);
+      index += count;
+    }
+  }
+
+  /**
+   * Read bytes from a stream and decode them to shorts through the byte table
+   */
+  public static void readByteStream(InputStream in, short[] to) throws IOException {
+    byte[] bytes = new byte[READ_BUFFER_SIZE];
+    int index = 0;
+    while (index < to.length) {
+      int length = Math.min(to.length - index, READ_BUFFER_SIZE);
+      int read = 0;
+      while (read < length) {
+        int r = in.read(bytes, read, length - read);
+        if (r < 0) {
+          throw new EOFException("Unexpected end of stream");
+        }
+        read += r;
+      }
+      decodeBytes(bytes, to, index, length);
+      index += length;
+    }
+  }
+
+  static boolean isLocalFile(Path filePath) {
+    String scheme = filePath.toUri().getScheme();
+    return scheme == null || scheme.equals("file");
+  }
+
+  /**
+   * Read shorts from a local file by mapping the region in to memory. The region is decoded with
+   * bulk gets of a short view, so there are no per element calls.
+   * @param path the file
+   * @param start start of the region in bytes
+   * @param to the array to fill, length of the region is decided by this array
+   * @param isBigEndian byte order of the file
+   */
+  public static void readMappedFile(java.nio.file.Path path, long start, short[] to,
+                                    boolean isBigEndian) throws IOException {
+    ByteOrder order = isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long position = start;
+      int offset = 0;
+      while (offset < to.length) {
+        int count = (int) Math.min(to.length - offset, MAX_MAP_SIZE / Short.BYTES);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Short.BYTES);
+        buffer.order(order);
+        buffer.asShortBuffer().get(to, offset, count);
+        offset += count;
+        position += (long) count * Short.BYTES;
       }
+    }
+  }
+
+  /**
+   * Read shorts, or bytes decoded to shorts if the file is byte encoded, from a mapped region of a
+   * local file
+   * @param start start of the region in bytes
+   */
+  public static void readMappedFile(java.nio.file.Path path, long start, short[] to,
+                                    boolean isBigEndian, boolean byteEncoded) throws IOException {
+    if (byteEncoded) {
+      readMappedByteFile(path, start, to);
     } else {
-      LittleEndianDataInputStream ldis = new LittleEndianDataInputStream(this.stream);
-      for (int i = 0; i < length; ++i) {
-        reuse[i] = ldis.readShort();
+      readMappedFile(path, start, to, isBigEndian);
+    }
+  }
+
+  /**
+   * Read bytes from a mapped region of a local file and decode them to shorts through the byte table
+   * @param start start of the region in bytes
+   */
+  public static void readMappedByteFile(java.nio.file.Path path, long start, short[] to) throws IOException {
+    byte[] bytes = new byte[Math.min(to.length, READ_BUFFER_SIZE)];
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long position = start;
+      int offset = 0;
+      while (offset < to.length) {
+        int count = (int) Math.min(to.length - offset, MAX_MAP_SIZE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+        for (int i = 0; i < count; i += bytes.length) {
+          int length = Math.min(bytes.length, count - i);
+          buffer.get(bytes, 0, length);
+          decodeBytes(bytes, to, offset + i, length);
+        }
+        offset += count;
+        position += count;
       }
     }
   }
 
-  private void genData(int length, short[] reuse) throws IOException {
+  private static void decodeBytes(byte[] bytes, short[] to, int offset, int length) {
+    for (int i = 0; i < length; i++) {
+      to[offset + i] = BYTE_TABLE[bytes[i] & 0xFF];
+    }
+  }
+
+  /**
+   * The short of a byte of a byte encoded file
+   */
+  public static short decodeByte(int b) {
+    return BYTE_TABLE[b & 0xFF];
+  }
+
+  /**
+   * The byte of a short in a byte encoded file, the inverse of {@link #decodeByte(int)} for the
+   * shorts of the byte table
+   */
+  public static byte encodeByte(short s) {
+    return (byte) (s < 0 ? MISSING_BYTE : Math.round(s * (MISSING_BYTE - 1.0) / Short.MAX_VALUE));
+  }
+
+  private static short[] createByteTable() {
+    short[] table = new short[MISSING_BYTE + 1];
+    for (int b = 0; b < MISSING_BYTE; b++) {
+      table[b] = (short) Math.round(b * (double) Short.MAX_VALUE / (MISSING_BYTE - 1));
+    }
+    table[MISSING_BYTE] = -1;
+    return table;
+  }
+
+  static void genData(int length, short[] reuse) throws IOException {
     Random random = new Random();
     short start = (short) random.nextInt(Short.MAX_VALUE);
     for (int i = 0; i < length; ++i) {
@@ -73,4 +276,50 @@ public class ShortMatrixInputFormat extends MatrixInputFormat<ShortMatrixBlock>
       }
     }
   }
+
+  public BlockTransform<ShortMatrixBlock> getTransform() {
+    return transform;
+  }
+
+  public void setTransform(BlockTransform<ShortMatrixBlock> transform) {
+    this.transform = transform;
+  }
+
+  public boolean isMemoryMapped() {
+    return memoryMapped;
+  }
+
+  public void setMemoryMapped(boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+  }
+
+  public boolean isByteEncoded() {
+    return byteEncoded;
+  }
+
+  public void setByteEncoded(boolean byteEncoded) {
+    this.byteEncoded = byteEncoded;
+    this.byteSize = byteEncoded ? Byte.BYTES : Short.BYTES;
+  }
+
+  public boolean isCached() {
+    return cached;
+  }
+
+  public void setCached(boolean cached) {
+    this.cached = cached;
+  }
+
+  public String getCacheRun() {
+    return cacheRun;
+  }
+
+  public void setCacheRun(String cacheRun) {
+    this.cacheRun = cacheRun;
+  }
+
+  @Override
+  public TypeInformation<ShortMatrixBlock> getProducedType() {
+    return MatrixTypes.SHORT_MATRIX_BLOCK;
+  }
 }
@@ -0,0 +1,116 @@
+package edu.iu.dsc.flink.mm;
+
+import org.apache.flink.api.java.tuple.Tuple2;
+import org.apache.flink.configuration.Configuration;
+import org.apache.flink.core.fs.FileInputSplit;
+import org.apache.flink.core.fs.Path;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the sparse files hold the same matrices as the dense files they are written from. The
+ * blocks of both are read through {@link DistanceWeightInputFormat}, every stored entry of the sparse
+ * blocks must have the distance and the weight of the dense blocks at its row and column, and every
+ * entry of the dense blocks that is not stored must be a missing distance with a zero weight.
+ * Usage: SparseFileCheck [dense distances] [dense weights or -] [sparse distances] [sparse weights or -]
+ * [n] [upper triangular] [splits] [big endian weights]
+ */
+public class SparseFileCheck {
+  public static void main(String[] args) throws IOException {
+    String distanceFile = args[0];
+    String weightFile = args[1].equals("-") ? null : args[1];
+    String sparseFile = args[2];
+    String sparseWeightFile = args[3].equals("-") ? null : args[3];
+    int n = Integer.parseInt(args[4]);
+    boolean upperTriangular = Boolean.parseBoolean(args[5]);
+    int splits = args.length > 6 ? Integer.parseInt(args[6]) : 4;
+    boolean weightBigEndian = args.length > 7 ? Boolean.parseBoolean(args[7]) : true;
+
+    List<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> dense = read(distanceFile, weightFile, false, n,
+        upperTriangular, splits, weightBigEndian);
+    List<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> sparse = read(sparseFile, sparseWeightFile, true, n,
+        upperTriangular, splits, weightBigEndian);
+
+    // the sparse entries of each global row
+    ShortMatrixBlock[] sparseRows = new ShortMatrixBlock[n];
+    ShortMatrixBlock[] sparseWeightRows = new ShortMatrixBlock[n];
+    int[] sparseLocalRows = new int[n];
+    long stored = 0;
+    for (Tuple2<ShortMatrixBlock, ShortMatrixBlock> t : sparse) {
+      for (int i = 0; i < t.f0.getBlockRows(); i++) {
+        sparseRows[t.f0.getStart() + i] = t.f0;
+        sparseWeightRows[t.f0.getStart() + i] = t.f1;
+        sparseLocalRows[t.f0.getStart() + i] = i;
+      }
+      stored += t.f0.getEntryCount();
+    }
+
+    long errors = 0;
+    long entries = 0;
+    for (Tuple2<ShortMatrixBlock, ShortMatrixBlock> t : dense) {
+      ShortMatrixBlock block = t.f0;
+      for (int i = 0; i < block.getBlockRows(); i++) {
+        int row = block.getStart() + i;
+        ShortMatrixBlock s = sparseRows[row];
+        if (s == null) {
+          System.out.println("Row " + row + " is not in the sparse blocks");
+          errors++;
+          continue;
+        }
+        int local = sparseLocalRows[row];
+        int e = s.getRowEntry(local);
+        int end = s.getRowEntry(local + 1);
+        int first = block.getRowEntry(i);
+        for (int k = first; k < block.getRowEntry(i + 1); k++) {
+          int col = block.getFirstColumn(i) + k - first;
+          short d = block.getData()[k];
+          short w = t.f1.getData() != null ? t.f1.getData()[k] : 0;
+          entries++;
+          if (e < end && s.getColumns()[e] == col) {
+            short sw = sparseWeightRows[row].getData() != null ? sparseWeightRows[row].getData()[e] : 0;
+            if (s.getData()[e] != d || sw != w) {
+              System.out.printf("Entry (%d, %d) dense %d %d sparse %d %d\n", row, col, d, w, s.getData()[e], sw);
+              errors++;
+            }
+            e++;
+          } else if (d >= 0 || w != 0) {
+            System.out.printf("Entry (%d, %d) dense %d %d is not stored\n", row, col, d, w);
+            errors++;
+          }
+        }
+        if (e != end) {
+          System.out.println("Row " + row + " has " + (end - e) + " sparse entries that are not in the dense row");
+          errors += end - e;
+        }
+      }
+    }
+    System.out.printf("Dense entries %d stored entries %d errors %d\n", entries, stored, errors);
+    if (errors > 0) {
+      System.exit(1);
+    }
+  }
+
+  private static List<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> read(
+      String file, String weightFile, boolean sparseFile, int n, boolean upperTriangular, int splits,
+      boolean weightBigEndian) throws IOException {
+    DistanceWeightInputFormat format = new DistanceWeightInputFormat();
+    format.setFilePath(new Path(file));
+    format.setGlobalRowCount(n);
+    format.setGlobalColumnCount(n);
+    format.setUpperTriangular(upperTriangular);
+    format.setSparseFile(sparseFile);
+    format.setWeightFile(weightFile);
+    format.setWeightBigEndian(weightBigEndian);
+    format.configure(new Configuration());
+
+    List<Tuple2<ShortMatrixBlock, ShortMatrixBlock>> blocks = new ArrayList<Tuple2<ShortMatrixBlock, ShortMatrixBlock>>();
+    for (FileInputSplit split : format.createInputSplits(splits)) {
+      format.open(split);
+      blocks.add(format.nextRecord(null));
+      format.close();
+    }
+    return blocks;
+  }
+}
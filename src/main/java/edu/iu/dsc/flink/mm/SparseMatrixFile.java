@@ -0,0 +1,211 @@
+package edu.iu.dsc.flink.mm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A matrix file that keeps the stored entries of the rows only, in the compressed sparse row format
+ * of {@link ShortMatrixBlock}. The file has three sections one after the other
+ *
+ *   the row offsets, n + 1 longs. The stored entries before each row, the last one is the count of
+ *   all the stored entries
+ *   the global column of each stored entry, an int per entry
+ *   the distance of each stored entry, a short per entry
+ *
+ * A sparse weight file has only the weights of the stored entries, a short per entry in the same
+ * order. The rows of an upper triangular file keep the entries of the upper triangle.
+ *
+ * The files are written from the dense files by {@link #write}. An entry is stored if its distance
+ * is not missing, or if it is missing but has a non zero weight, so the blocks read from the sparse
+ * files are the same as the sparse blocks read from the dense files.
+ */
+public final class SparseMatrixFile {
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+  private SparseMatrixFile() {
+  }
+
+  /**
+   * Offset of the offset of the row in the file in bytes
+   */
+  public static long rowOffsetPosition(int row) {
+    return (long) row * Long.BYTES;
+  }
+
+  /**
+   * Offset of the columns of the stored entries in the file in bytes
+   */
+  public static long columnsPosition(int rows) {
+    return rowOffsetPosition(rows + 1);
+  }
+
+  /**
+   * Offset of the distances of the stored entries in the file in bytes
+   */
+  public static long valuesPosition(int rows, long entries) {
+    return columnsPosition(rows) + entries * Integer.BYTES;
+  }
+
+  /**
+   * Read longs from a stream in bulk
+   */
+  public static void readLongs(InputStream in, long[] to, boolean isBigEndian) throws IOException {
+    byte[] bytes = new byte[READ_BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    int index = 0;
+    while (index < to.length) {
+      int count = Math.min(to.length - index, READ_BUFFER_SIZE / Long.BYTES);
+      readFully(in, bytes, count * Long.BYTES);
+      buffer.clear();
+      buffer.asLongBuffer().get(to, index, count);
+      index += count;
+    }
+  }
+
+  /**
+   * Read ints from a stream in bulk
+   */
+  public static void readInts(InputStream in, int[] to, boolean isBigEndian) throws IOException {
+    byte[] bytes = new byte[READ_BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(bytes).order(isBigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    int index = 0;
+    while (index < to.length) {
+      int count = Math.min(to.length - index, READ_BUFFER_SIZE / Integer.BYTES);
+      readFully(in, bytes, count * Integer.BYTES);
+      buffer.clear();
+      buffer.asIntBuffer().get(to, index, count);
+      index += count;
+    }
+  }
+
+  private static void readFully(InputStream in, byte[] bytes, int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      int r = in.read(bytes, read, length - read);
+      if (r < 0) {
+        throw new EOFException("Unexpected end of stream");
+      }
+      read += r;
+    }
+  }
+
+  /**
+   * Write the sparse files of a dense n x n distance file and its weight file. The dense files are
+   * full or upper triangular, the sparse files have the same layout. The distance files are big
+   * endian. The weights are copied as they are, so the sparse weight file has the byte order of the
+   * dense one.
+   * @param distanceFile the dense distances
+   * @param weightFile the dense weights, or null to store the distances that are not missing only
+   * @param outFile the sparse distances
+   * @param outWeightFile the sparse weights, not written if there is no weight file
+   * @return the number of stored entries
+   */
+  public static long write(String distanceFile, String weightFile, int n, String outFile,
+                           String outWeightFile) throws IOException {
+    if (weightFile != null && outWeightFile == null) {
+      throw new IllegalArgumentException("The sparse weight file is not given");
+    }
+    long entries = Files.size(Paths.get(distanceFile)) / Short.BYTES;
+    boolean upperTriangular;
+    if (entries == (long) n * n) {
+      upperTriangular = false;
+    } else if (entries == ShortMatrixBlock.upperTriangleOffset(n, n)) {
+      upperTriangular = true;
+    } else {
+      throw new IOException("The size of " + distanceFile + " does not match a full or an upper triangular "
+          + n + " x " + n + " matrix");
+    }
+
+    // the row offsets are written first, so the stored entries are counted before they are written
+    long[] rowOffsets = new long[n + 1];
+    try (Dense dense = new Dense(distanceFile, weightFile)) {
+      for (int i = 0; i < n; i++) {
+        long count = 0;
+        for (int j = upperTriangular ? i : 0; j < n; j++) {
+          if (dense.next()) {
+            count++;
+          }
+        }
+        rowOffsets[i + 1] = rowOffsets[i] + count;
+      }
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(Paths.get(outFile), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING)))) {
+      for (long offset : rowOffsets) {
+        out.writeLong(offset);
+      }
+      try (Dense dense = new Dense(distanceFile, weightFile)) {
+        for (int i = 0; i < n; i++) {
+          for (int j = upperTriangular ? i : 0; j < n; j++) {
+            if (dense.next()) {
+              out.writeInt(j);
+            }
+          }
+        }
+      }
+      try (Dense dense = new Dense(distanceFile, weightFile);
+           DataOutputStream weightOut = weightFile != null ? new DataOutputStream(new BufferedOutputStream(
+               Files.newOutputStream(Paths.get(outWeightFile), StandardOpenOption.CREATE,
+                   StandardOpenOption.TRUNCATE_EXISTING))) : null) {
+        for (long i = 0; i < entries; i++) {
+          if (dense.next()) {
+            out.writeShort(dense.distance);
+            if (weightOut != null) {
+              weightOut.writeShort(dense.weight);
+            }
+          }
+        }
+      }
+    }
+    return rowOffsets[n];
+  }
+
+  /**
+   * Reads the entries of the dense files one after the other
+   */
+  private static class Dense implements AutoCloseable {
+    private final DataInputStream distances;
+    private final DataInputStream weights;
+    short distance;
+    short weight;
+
+    Dense(String distanceFile, String weightFile) throws IOException {
+      distances = open(distanceFile);
+      weights = weightFile != null ? open(weightFile) : null;
+    }
+
+    private static DataInputStream open(String file) throws IOException {
+      return new DataInputStream(new BufferedInputStream(
+          Files.newInputStream(Paths.get(file), StandardOpenOption.READ)));
+    }
+
+    /**
+     * Read the next entry, true if it is stored
+     */
+    boolean next() throws IOException {
+      distance = distances.readShort();
+      weight = weights != null ? weights.readShort() : 0;
+      return distance >= 0 || weight != 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      distances.close();
+      if (weights != null) {
+        weights.close();
+      }
+    }
+  }
+}